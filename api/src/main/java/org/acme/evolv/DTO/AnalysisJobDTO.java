@@ -0,0 +1,11 @@
+package org.acme.evolv.dto;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+public record AnalysisJobDTO(
+        UUID runId, String status,          // queued / running / done / failed
+        String fileName, String modelUsed,
+        String resultMarkdown, String promptUsed,
+        String errorMessage, OffsetDateTime createdAt
+) {}
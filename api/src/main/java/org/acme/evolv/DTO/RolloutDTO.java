@@ -0,0 +1,19 @@
+package org.acme.evolv.dto;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public record RolloutDTO(
+        UUID id, String status,             // running / paused / halted / interrupted / done
+        String templateVersion,
+        int parallelism, int maxFailures,
+        int total, int done, int failed, int pending, int running,
+        String errorMessage,
+        OffsetDateTime createdAt, OffsetDateTime updatedAt,
+        List<Target> targets
+) {
+    public record Target(String app, String companyId, String status, int attempts, String errorMessage,
+            OffsetDateTime startedAt, OffsetDateTime finishedAt) {
+    }
+}
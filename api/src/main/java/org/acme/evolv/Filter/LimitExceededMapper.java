@@ -0,0 +1,21 @@
+package org.acme.evolv.filter;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.ExceptionMapper;
+import jakarta.ws.rs.ext.Provider;
+
+import org.acme.evolv.factory.services.AnalysisLimiter;
+
+import java.util.Map;
+
+@Provider
+public class LimitExceededMapper implements ExceptionMapper<AnalysisLimiter.LimitExceeded> {
+  @Override public Response toResponse(AnalysisLimiter.LimitExceeded e) {
+    return Response.status(429)
+        .header("Retry-After", e.retryAfterSeconds())
+        .type(MediaType.APPLICATION_JSON)
+        .entity(Map.of("error", e.getMessage(), "retryAfterSeconds", e.retryAfterSeconds()))
+        .build();
+  }
+}
@@ -2,13 +2,18 @@ package org.acme.evolv.controls;
 
 import org.acme.evolv.dto.ChatMessage;
 import org.acme.evolv.dto.CreateReq;
-import org.acme.evolv.dto.CreateResp;
+import org.acme.evolv.dto.RolloutDTO;
 
+import org.acme.evolv.factory.docker.ContainerRegistry;
 import org.acme.evolv.factory.services.AuthService;
+import org.acme.evolv.factory.services.BuildScheduler;
+import org.acme.evolv.factory.services.DeployManifestService;
+import org.acme.evolv.factory.services.DockerService;
+import org.acme.evolv.factory.services.FleetRollout;
+import org.acme.evolv.factory.services.PortAllocator;
+import org.acme.evolv.factory.services.StaticGateway;
 import org.acme.evolv.factory.services.VueFactoryService;
-import org.acme.evolv.factory.shell.Shell;
 import org.acme.evolv.utils.LogSseHub;
-import org.acme.evolv.utils.PortUtils;
 
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
@@ -16,9 +21,9 @@ import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
-import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @Path("/api/apps")
 @Produces(MediaType.APPLICATION_JSON)
@@ -28,6 +33,27 @@ public class AppResource {
     @Inject
     VueFactoryService svc;
 
+    @Inject
+    BuildScheduler scheduler;
+
+    @Inject
+    PortAllocator ports;
+
+    @Inject
+    StaticGateway gateway;
+
+    @Inject
+    ContainerRegistry containers;
+
+    @Inject
+    DockerService docker;
+
+    @Inject
+    DeployManifestService manifests;
+
+    @Inject
+    FleetRollout rollouts;
+
     @Inject
     AuthService service;
 
@@ -35,52 +61,205 @@ public class AppResource {
     LogSseHub hub; // for streaming logs sse/ws
 
     // -------------------- create (from scratch) --------------------
+    // queued on the build scheduler; poll /jobs/{id} for the result
     @POST
-    public CreateResp create(CreateReq req) throws Exception {
+    public Response create(CreateReq req, @QueryParam("priority") @DefaultValue("0") int priority) throws Exception {
         if (req == null || req.name() == null || req.name().isBlank()) {
             throw new BadRequestException("name required");
         }
-        int p = (req.port() != null) ? req.port() : PortUtils.pickPort(req.name());
-
-        var result = svc.createAndRun(req.companyId(), req.name(), p);
+        String app = safe(req.name());
+        PortAllocator.Reservation res = reserve(app, req.companyId(), req.port());
+        int p = res.port();
 
-        return new CreateResp(
-                req.companyId(),
-                req.name(),
-                p,
-                result.container(),
-                result.image(),
-                result.url(),
-                result.logs());
+        var job = submit(req.companyId(), req.name(), priority, req.stream(), res.fresh() ? app : null, () -> {
+            try {
+                var r = svc.createAndRun(req.companyId(), req.name(), p, req.stream());
+                ports.activate(app);
+                return r;
+            } catch (Exception e) {
+                ports.releaseIfUnused(app);
+                throw e;
+            }
+        });
+        return Response.accepted(scheduler.view(job.id())).build();
     }
 
     // -------------------- create from template (with SSE logs)
     // --------------------
     @POST
     @Path("/template/{name}")
-    public VueFactoryService.Result createFromTemplate(
+    public Response createFromTemplate(
             @PathParam("name") String name,
             @QueryParam("port") Integer port,
             @QueryParam("streamId") String streamId, // front add streamId query param
-            @QueryParam("companyId") String companyId) throws Exception {
-        int p = (port != null) ? port : PortUtils.pickPort(name);
+            @QueryParam("companyId") String companyId,
+            @QueryParam("priority") @DefaultValue("0") int priority) throws Exception {
+        // gateway hosting serves from this server, no host port needed
+        String app = safe(name);
+        PortAllocator.Reservation res = gateway.enabled() ? null : reserve(app, companyId, port);
+        int p = res == null ? 0 : res.port();
         // important: pass streamId to svc
-        return svc.createFromTemplate(companyId, name, p, streamId);
+        var job = submit(companyId, name, priority, streamId, res != null && res.fresh() ? app : null, () -> {
+            try {
+                var r = svc.createFromTemplate(companyId, name, p, streamId);
+                if (p > 0)
+                    ports.activate(app);
+                return r;
+            } catch (Exception e) {
+                if (p > 0)
+                    ports.releaseIfUnused(app);
+                throw e;
+            }
+        });
+        return Response.accepted(scheduler.view(job.id())).build();
+    }
+
+    // -------------------- build jobs --------------------
+    @GET
+    @Path("/jobs")
+    public Map<String, Object> jobs() {
+        return scheduler.stats();
+    }
+
+    @GET
+    @Path("/ports")
+    public Map<String, Object> ports() {
+        return ports.stats();
+    }
+
+    // every tenant container, from memory (see ContainerRegistry); "ready": false = registry not in sync
+    @GET
+    @Path("/fleet")
+    public Map<String, Object> fleet() {
+        List<ContainerRegistry.Container> list = containers.list("vue-");
+        long running = list.stream().filter(ContainerRegistry.Container::running).count();
+        return Map.of(
+                "ready", containers.ready(),
+                "total", list.size(),
+                "running", running,
+                "containers", list);
+    }
+
+    @GET
+    @Path("/jobs/{id}")
+    public BuildScheduler.JobView job(@PathParam("id") String id) {
+        var view = scheduler.view(id);
+        if (view == null)
+            throw new NotFoundException();
+        return view;
+    }
+
+    // -------------------- fleet rollout --------------------
+    // redeploy the current template to every deployed tenant; progress on /rollouts/{id} and streamId
+    @POST
+    @Path("/rollouts")
+    public Response startRollout(
+            @QueryParam("parallelism") Integer parallelism,
+            @QueryParam("maxFailures") Integer maxFailures,
+            @QueryParam("streamId") String streamId) throws Exception {
+        try {
+            return Response.accepted(rollouts.start(parallelism, maxFailures, streamId)).build();
+        } catch (IllegalStateException e) {
+            throw new ClientErrorException(e.getMessage(), 409);
+        }
+    }
+
+    @GET
+    @Path("/rollouts/{id}")
+    public RolloutDTO rollout(@PathParam("id") java.util.UUID id) {
+        RolloutDTO view = rollouts.view(id);
+        if (view == null)
+            throw new NotFoundException();
+        return view;
+    }
+
+    @POST
+    @Path("/rollouts/{id}/resume")
+    public Response resumeRollout(@PathParam("id") java.util.UUID id,
+            @QueryParam("retryFailed") @DefaultValue("false") boolean retryFailed,
+            @QueryParam("streamId") String streamId) {
+        try {
+            RolloutDTO view = rollouts.resume(id, retryFailed, streamId);
+            if (view == null)
+                throw new NotFoundException();
+            return Response.accepted(view).build();
+        } catch (IllegalStateException e) {
+            throw new ClientErrorException(e.getMessage(), 409);
+        }
+    }
+
+    @POST
+    @Path("/rollouts/{id}/pause")
+    public RolloutDTO pauseRollout(@PathParam("id") java.util.UUID id) {
+        try {
+            return rollouts.pause(id);
+        } catch (IllegalStateException e) {
+            throw new ClientErrorException(e.getMessage(), 409);
+        }
+    }
+
+    // reservedApp: port newly reserved for this submission, given back if the queue refuses it
+    private BuildScheduler.Job submit(String companyId, String name, int priority, String streamId,
+            String reservedApp, java.util.concurrent.Callable<VueFactoryService.Result> work) {
+        try {
+            return scheduler.submit(companyId, name, priority, streamId, work);
+        } catch (RejectedExecutionException e) {
+            if (reservedApp != null)
+                ports.release(reservedApp);
+            throw new ClientErrorException(e.getMessage(), 429);
+        } catch (IllegalStateException e) {
+            if (reservedApp != null)
+                ports.release(reservedApp);
+            throw new ClientErrorException(e.getMessage(), 409);
+        }
+    }
+
+    private PortAllocator.Reservation reserve(String app, String companyId, Integer port) {
+        try {
+            return ports.reserve(app, companyId, port);
+        } catch (IllegalStateException e) {
+            throw new ClientErrorException(e.getMessage(), 409);
+        }
+    }
+
+    private static String safe(String name) {
+        return name.replaceAll("[^a-zA-Z0-9-_]", "-").toLowerCase();
+    }
+
+    // -------------------- runtime config (deployMode=runtime) --------------------
+    @PUT
+    @Path("/{name}/config")
+    public VueFactoryService.Result updateConfig(
+            @PathParam("name") String name,
+            @QueryParam("streamId") String streamId,
+            @QueryParam("companyId") String companyId) throws Exception {
+        if (companyId == null || companyId.isBlank()) {
+            throw new BadRequestException("companyId required");
+        }
+        try {
+            return svc.updateRuntimeConfig(companyId, name, streamId);
+        } catch (IllegalStateException e) {
+            throw new BadRequestException(e.getMessage());
+        }
     }
 
     // -------------------- remove --------------------
     @DELETE
     @Path("/{name}")
     public ChatMessage remove(@PathParam("name") String name) throws Exception { // add name param
-        String safe = name.replaceAll("[^a-zA-Z0-9-_]", "-").toLowerCase();
+        String safe = safe(name);
         String container = "vue-" + safe;
 
-        String dockerWinAbs = null; // Docker on Windows needs absolute path for -v
-        String out = Shell.runDocker(
-                List.of("rm", "-f", container),
-                Duration.ofSeconds(15),
-                /* ignoreNonZeroExit = */ true,
-                dockerWinAbs);
+        if (gateway.enabled()) {
+            // no container: the site is served from {workspace}/.sites/{app}
+            boolean existed = gateway.unpublish(safe);
+            return new ChatMessage("removed: " + safe + (existed ? "" : " | not published"));
+        }
+
+        // through DockerService: docker backend (cli / api) and ContainerRegistry stay in step
+        String out = docker.rmForce(container);
+        manifests.delete(container);
+        ports.release(safe);
 
         return new ChatMessage("removed: " + container + (out.isBlank() ? "" : (" | " + out.trim())));
     }
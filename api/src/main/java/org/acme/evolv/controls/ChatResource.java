@@ -1,32 +1,66 @@
 package org.acme.evolv.controls;
 
 import org.acme.evolv.entity.AiScenarioEntity;
+import org.acme.evolv.factory.services.AiApiClient;
+import org.acme.evolv.factory.services.AnalysisCache;
+import org.acme.evolv.factory.services.AnalysisJobs;
+import org.acme.evolv.factory.services.AnalysisLimiter;
+import org.acme.evolv.factory.services.AnalysisStreamer;
+import org.acme.evolv.factory.services.AnalyzeFanOut;
 import org.acme.evolv.forms.MultiForm;
+import org.acme.evolv.utils.MultipartBodyPublisher;
 import org.acme.evolv.utils.PathUtils;
-import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.acme.evolv.utils.SingleFlight;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 import java.net.http.*;
-import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 @Path("/api/pdf")
 @Produces(MediaType.APPLICATION_JSON)
 public class ChatResource {
 
     @Inject
-    @ConfigProperty(name = "ai.api.url")
-    String pythonApiUrl;
+    AiApiClient ai;
+
+    @Inject
+    AnalysisCache cache;
+
+    @Inject
+    AnalyzeFanOut fanOut;
+
+    @Inject
+    AnalysisJobs jobs;
+
+    @Inject
+    AnalysisLimiter limiter;
+
+    @Inject
+    AnalysisStreamer streamer;
+
+    private static final SingleFlight<String, Map<String, Object>> INFLIGHT = new SingleFlight<>();
+
+    // upstream path mirrors ours (resolved once, not per request)
+    private static final String MULTI_PATH = PathUtils.getFullPath(ChatResource.class, "analyzeMulti",
+            MultiForm.class, String.class, String.class).replace("/api/", "");
     
     @POST
     @Path("/analyze-multi")
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Produces(MediaType.APPLICATION_JSON)
-    public Map<String, Object> analyzeMulti(MultiForm form) throws Exception {
+    public Map<String, Object> analyzeMulti(MultiForm form,
+            @QueryParam("mode") String mode,           // "fanout": one upstream call per file, see AnalyzeFanOut
+            @QueryParam("streamId") String streamId    // fanout: per-file results on /api/apps/streams/{streamId}
+    ) throws Exception {
         if (form == null || form.files == null || form.files.isEmpty()) {
             throw new BadRequestException("no files");
         }
@@ -45,31 +79,89 @@ public class ChatResource {
         }
         String customPrompt = s.promptTemplate == null ? "" : s.promptTemplate;
 
-        List<FilePart> parts = new ArrayList<>();
         for (FileUpload fu : form.files) {
             String fileName = fu.fileName();
-            String contentType = fu.contentType();
             if (fileName == null || !fileName.toLowerCase().endsWith(".pdf")) {
                 throw new BadRequestException("is only PDF files: " + fileName);
             }
-            byte[] bytes = Files.readAllBytes(fu.filePath());
-            parts.add(new FilePart("files", fileName, contentType, bytes));
         }
 
-        // Python /analyze_multi
-        Map<String, String> fields = new LinkedHashMap<>();
-        fields.put("custom_prompt", customPrompt);
-        fields.put("question", question);
-        fields.put("model", model == null ? "" : model);
+        List<java.nio.file.Path> uploads = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (FileUpload fu : form.files) {
+            uploads.add(fu.filePath());
+            names.add(fu.fileName());
+        }
+        boolean fanout = "fanout".equalsIgnoreCase(mode);
+        String cacheKey = cache.key(fanout ? "multi-fanout" : "multi", s.id, customPrompt, question, model, uploads);
+        Map<String, Object> cached = cache.get(cacheKey, run -> Map.of(
+                "files", names,
+                "markdown", run.resultMarkdown == null ? "" : run.resultMarkdown,
+                "model", run.modelUsed,
+                "note", "cached"));
+        if (cached != null) {
+            if (fanout)
+                fanOut.done(streamId, cached);
+            return cached;
+        }
 
-        HttpRequest request = buildMultipartRequestMulti(
-                pythonApiUrl + PathUtils.getFullPath(ChatResource.class, "analyzeMulti", MultiForm.class).replace("/api/", ""),
-                fields,
-                parts
-        );
+        // identical questions on identical files arriving together share one upstream call;
+        // only the caller making it takes bulkhead slots / a rate token
+        if (!fanout) {
+            return INFLIGHT.run(cacheKey, ai.totalTimeout(), () -> {
+                try (var permit = limiter.acquire(s.companyId, model)) {
+                    return callUpstream(s, form, customPrompt, question, model, names, cacheKey);
+                }
+            });
+        }
 
-        HttpClient client = HttpClient.newHttpClient();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        try {
+            Map<String, Object> result = INFLIGHT.run(cacheKey, ai.totalTimeout(), () -> {
+                try (var permit = limiter.acquire(s.companyId, model)) {
+                    var r = fanOut.run(uploadsOf(form.files), customPrompt, question, model, streamId);
+                    cache.put(cacheKey, s, String.join(", ", names), (String) r.get("model"),
+                            (String) r.get("markdown"), customPrompt, r);
+                    return r;
+                }
+            });
+            fanOut.done(streamId, result);
+            return result;
+        } catch (Exception e) {
+            fanOut.failed(streamId, e.getMessage());
+            throw e;
+        }
+    }
+
+    private Map<String, Object> callUpstream(AiScenarioEntity s, MultiForm form, String customPrompt, String question,
+            String model, List<String> names, String cacheKey) throws Exception {
+        Map<String, Object> result = postMulti(customPrompt, question, model, uploadsOf(form.files));
+        cache.put(cacheKey, s, String.join(", ", names), (String) result.get("model"), (String) result.get("markdown"),
+                customPrompt, result);
+        return result;
+    }
+
+    private static List<AnalysisJobs.Upload> uploadsOf(List<FileUpload> files) {
+        List<AnalysisJobs.Upload> out = new ArrayList<>();
+        for (FileUpload fu : files) {
+            out.add(new AnalysisJobs.Upload(fu.fileName(), fu.contentType(), fu.filePath()));
+        }
+        return out;
+    }
+
+    private Map<String, Object> postMulti(String customPrompt, String question, String model,
+            List<AnalysisJobs.Upload> uploads) throws Exception {
+        // Python /analyze_multi (files are streamed from their upload temp files)
+        var body = new MultipartBodyPublisher()
+                .field("custom_prompt", customPrompt)
+                .field("question", question)
+                .field("model", model == null ? "" : model);
+        for (AnalysisJobs.Upload u : uploads) {
+            body.file("files", u.fileName(), u.contentType(), u.path());
+        }
+
+        var request = body.post(ai.url(MULTI_PATH));
+
+        HttpResponse<String> response = ai.send(request, HttpResponse.BodyHandlers.ofString());
 
         if (response.statusCode() != 200) {
             throw new RuntimeException("Python API call failture: " + response.statusCode() + " → " + response.body());
@@ -98,65 +190,96 @@ public class ChatResource {
         );
     }
 
-    /* ---------------- multipart ---------------- */
-
-    static class FilePart {
-        final String fieldName;    // e.g. "files"
-        final String fileName;
-        final String contentType;  // e.g. "application/pdf"
-        final byte[] bytes;
-
-        FilePart(String fieldName, String fileName, String contentType, byte[] bytes) {
-            this.fieldName = fieldName;
-            this.fileName = fileName;
-            this.contentType = contentType == null || contentType.isBlank()
-                    ? "application/octet-stream"
-                    : contentType;
-            this.bytes = bytes;
+    // -------------------- streaming --------------------
+    // the answer as the model writes it: SSE start / delta / done (see AnalysisStreamer); the run is saved at the end
+    @POST
+    @Path("/analyze-multi/stream")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void streamMulti(MultiForm form, @Context SseEventSink sink, @Context Sse sse) throws Exception {
+        if (form == null || form.files == null || form.files.isEmpty()) {
+            throw new BadRequestException("no files");
         }
-    }
-
-    private static HttpRequest buildMultipartRequestMulti(
-            String url,
-            Map<String, String> fields,
-            List<FilePart> files
-    ) {
-        String boundary = "----JavaBoundary" + UUID.randomUUID();
-        var CRLF = "\r\n";
-        var byteOut = new java.io.ByteArrayOutputStream();
+        String question = form.question == null ? "" : form.question.trim();
+        String model = (form.model == null || form.model.isBlank()) ? null : form.model.trim();
 
-        try {
-            for (var e : fields.entrySet()) {
-                String name = e.getKey();
-                String value = e.getValue() == null ? "" : e.getValue();
-
-                byteOut.write(("--" + boundary + CRLF).getBytes());
-                byteOut.write(("Content-Disposition: form-data; name=\"" + name + "\"" + CRLF).getBytes());
-                byteOut.write(("Content-Type: text/plain; charset=UTF-8" + CRLF + CRLF).getBytes());
-                byteOut.write(value.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-                byteOut.write(CRLF.getBytes());
+        AiScenarioEntity s = AiScenarioEntity.findById(UUID.fromString(form.id));
+        if (s == null || !Objects.equals(s.companyId, UUID.fromString(form.companyid))) {
+            throw new NotFoundException();
+        }
+        for (FileUpload fu : form.files) {
+            String fileName = fu.fileName();
+            if (fileName == null || !fileName.toLowerCase().endsWith(".pdf")) {
+                throw new BadRequestException("is only PDF files: " + fileName);
             }
+        }
+        String customPrompt = s.promptTemplate == null ? "" : s.promptTemplate;
+        List<AnalysisJobs.Upload> uploads = uploadsOf(form.files);
+        String cacheKey = cache.key("multi", s.id, customPrompt, question, model,
+                uploads.stream().map(AnalysisJobs.Upload::path).toList());
+        // a cache hit costs no permit and records no run
+        if (streamer.replay(sink, sse, cacheKey))
+            return;
 
-            for (FilePart fp : files) {
-                byteOut.write(("--" + boundary + CRLF).getBytes());
-                byteOut.write(("Content-Disposition: form-data; name=\"" + fp.fieldName + "\"; filename=\"" + fp.fileName + "\"" + CRLF).getBytes());
-                byteOut.write(("Content-Type: " + fp.contentType + CRLF + CRLF).getBytes());
-                byteOut.write(fp.bytes);
-                byteOut.write(CRLF.getBytes());
-            }
+        var body = new MultipartBodyPublisher()
+                .field("custom_prompt", customPrompt)
+                .field("question", question)
+                .field("model", model == null ? "" : model);
+        for (AnalysisJobs.Upload u : uploads) {
+            body.file("files", u.fileName(), u.contentType(), u.path());
+        }
 
-            byteOut.write(("--" + boundary + "--" + CRLF).getBytes());
+        try (var permit = limiter.acquire(s.companyId, model)) {
+            String names = String.join(", ", uploads.stream().map(AnalysisJobs.Upload::fileName).toList());
+            streamer.stream(sink, sse, s.id, names, model, customPrompt, cacheKey,
+                    body.post(streamer.url(true)).header("Accept", "text/event-stream"));
+        }
+    }
 
-        } catch (Exception ex) {
-            throw new RuntimeException("multipart request's failture: " + ex.getMessage(), ex);
+    // -------------------- async --------------------
+    // returns at once with the queued run; poll /api/pdf/jobs/{runId} or follow /api/apps/streams/{streamId}
+    @POST
+    @Path("/analyze-multi/jobs")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    public Response submitMulti(MultiForm form, @QueryParam("streamId") String streamId) throws Exception {
+        if (form == null || form.files == null || form.files.isEmpty()) {
+            throw new BadRequestException("no files");
         }
+        String question = form.question == null ? "" : form.question.trim();
+        String model = (form.model == null || form.model.isBlank()) ? null : form.model.trim();
 
-        var bodyPublisher = HttpRequest.BodyPublishers.ofByteArray(byteOut.toByteArray());
+        AiScenarioEntity s = AiScenarioEntity.findById(UUID.fromString(form.id));
+        if (s == null || !Objects.equals(s.companyId, UUID.fromString(form.companyid))) {
+            throw new NotFoundException();
+        }
+        for (FileUpload fu : form.files) {
+            String fileName = fu.fileName();
+            if (fileName == null || !fileName.toLowerCase().endsWith(".pdf")) {
+                throw new BadRequestException("is only PDF files: " + fileName);
+            }
+        }
+        UUID scenarioId = s.id;
+        String customPrompt = s.promptTemplate == null ? "" : s.promptTemplate;
 
-        return HttpRequest.newBuilder()
-                .uri(java.net.URI.create(url))
-                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
-                .POST(bodyPublisher)
-                .build();
+        limiter.checkRate(s.companyId);
+        List<AnalysisJobs.Upload> uploads = jobs.spool(form.files);
+        String names = String.join(", ", uploads.stream().map(AnalysisJobs.Upload::fileName).toList());
+        try {
+            var job = jobs.submit(scenarioId, s.companyId, names, model, streamId, uploads, () -> {
+                String key = cache.key("multi", scenarioId, customPrompt, question, model,
+                        uploads.stream().map(AnalysisJobs.Upload::path).toList());
+                Map<String, Object> cached = cache.get(key, run -> Map.of(
+                        "markdown", run.resultMarkdown == null ? "" : run.resultMarkdown,
+                        "model", run.modelUsed));
+                if (cached != null)
+                    return new AnalysisJobs.Outcome((String) cached.get("model"), (String) cached.get("markdown"),
+                            customPrompt, null);
+                var r = postMulti(customPrompt, question, model, uploads);
+                return new AnalysisJobs.Outcome((String) r.get("model"), (String) r.get("markdown"), customPrompt, key);
+            });
+            return Response.accepted(job).build();
+        } catch (RejectedExecutionException e) {
+            throw new ClientErrorException(e.getMessage(), 429);
+        }
     }
 }
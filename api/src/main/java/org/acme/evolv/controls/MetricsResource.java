@@ -0,0 +1,51 @@
+package org.acme.evolv.controls;
+
+import org.acme.evolv.factory.docker.ContainerRegistry;
+import org.acme.evolv.factory.services.AiApiClient;
+import org.acme.evolv.factory.services.AnalysisJobs;
+import org.acme.evolv.factory.services.AnalysisLimiter;
+import org.acme.evolv.factory.services.BuildScheduler;
+import org.acme.evolv.factory.services.TenantProxy;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.Map;
+
+@Path("/api/metrics")
+@Produces(MediaType.APPLICATION_JSON)
+public class MetricsResource {
+
+    @Inject
+    AiApiClient ai;
+
+    @Inject
+    BuildScheduler builds;
+
+    @Inject
+    AnalysisJobs analysisJobs;
+
+    @Inject
+    AnalysisLimiter analysisLimits;
+
+    @Inject
+    ContainerRegistry containers;
+
+    @Inject
+    TenantProxy tenants;
+
+    // -------------------- in-flight / queued work --------------------
+    @GET
+    public Map<String, Object> metrics() {
+        return Map.of(
+                "aiApi", ai.metrics(),
+                "analysisJobs", analysisJobs.stats(),
+                "analysisLimits", analysisLimits.stats(),
+                "builds", builds.stats(),
+                "containers", containers.stats(),
+                "tenantProxy", tenants.stats());
+    }
+}
@@ -2,37 +2,71 @@ package org.acme.evolv.controls;
 
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+
+import org.acme.evolv.dto.AnalysisJobDTO;
 import org.acme.evolv.entity.AiScenarioEntity;
+import org.acme.evolv.entity.AiScenarioRunEntity;
+import org.acme.evolv.factory.repository.AnalysisRunRepository;
+import org.acme.evolv.factory.services.AiApiClient;
+import org.acme.evolv.factory.services.AnalysisCache;
+import org.acme.evolv.factory.services.AnalysisJobs;
+import org.acme.evolv.factory.services.AnalysisLimiter;
+import org.acme.evolv.factory.services.AnalysisStreamer;
+import org.acme.evolv.factory.services.ChunkedAnalysis;
+import org.acme.evolv.factory.services.PdfAnalyzeService;
 import org.acme.evolv.forms.PdfForm;
-import org.acme.evolv.utils.PathUtils;
-import org.eclipse.microprofile.config.inject.ConfigProperty;
-
-import java.io.IOException;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.file.Files;
+import org.acme.evolv.utils.MultipartBodyPublisher;
+import org.acme.evolv.utils.SingleFlight;
+
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 @Path("/api/pdf")
 @Produces(MediaType.APPLICATION_JSON)
 public class PdfResource {
 
     @Inject
-    @ConfigProperty(name = "ai.api.url")
-    String pythonApiUrl;  // e.x. http://localhost:8000/api/pdf/analyze
+    PdfAnalyzeService analyzer;  // ai.api.url + ai.api.analyzePath e.x. http://localhost:8000/api/v1/pdf/analyze
+
+    @Inject
+    AnalysisJobs jobs;
+
+    @Inject
+    AnalysisLimiter limiter;
+
+    @Inject
+    ChunkedAnalysis chunked;
+
+    @Inject
+    AnalysisRunRepository runs;
+
+    @Inject
+    AnalysisCache cache;
+
+    @Inject
+    AnalysisStreamer streamer;
+
+    @Inject
+    AiApiClient ai;
+
+    private static final SingleFlight<String, Map<String, Object>> INFLIGHT = new SingleFlight<>();
     
     @POST
     @Path("/analyze")
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    public Map<String, Object> analyzePdf(PdfForm form) throws Exception {
+    public Map<String, Object> analyzePdf(PdfForm form,
+            @QueryParam("streamId") String streamId    // large PDFs: per-chunk results, see ChunkedAnalysis
+    ) throws Exception {
         if (form == null || form.file == null) {
             throw new BadRequestException("no files");
         }
 
-        byte[] pdfBytes = Files.readAllBytes(form.file.filePath());
         String fileName = form.file.fileName();
         String contentType = form.file.contentType();
 
@@ -48,30 +82,50 @@ public class PdfResource {
             throw new NotFoundException();
 
         customPrompt = s.promptTemplate;
-        
-        HttpRequest request = buildMultipartRequest(
-                pythonApiUrl + PathUtils.getFullPath(getClass(), "analyzePdf", PdfForm.class).replace("/api/", ""),
-                Map.of(
-                        "custom_prompt", customPrompt == null ? "" : customPrompt,
-                        "model", model == null ? "" : model
-                ),
-                "file",
-                fileName,
-                contentType,
-                pdfBytes
-        );
 
-        HttpClient client = HttpClient.newHttpClient();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("Python API call failture: " + response.statusCode() + " → " + response.body());
+        // same document + prompt + model as an earlier upload: answer from the cache
+        String cacheKey = cache.key("pdf", s.id, customPrompt, null, model, List.of(form.file.filePath()));
+        Map<String, Object> cached = cache.get(cacheKey, run -> Map.of(
+                "file", run.fileName,
+                "markdown", run.resultMarkdown == null ? "" : run.resultMarkdown,
+                "model", run.modelUsed,
+                "note", "cached",
+                "prompt_used", run.promptUsed == null ? "" : run.promptUsed,
+                "text_bytes", 0));
+        if (cached != null)
+            return cached;
+
+        // identical uploads arriving together share one upstream call
+        // only the caller making the upstream call takes bulkhead slots / a rate token
+        String prompt = customPrompt;
+        try {
+            return INFLIGHT.run(cacheKey, ai.totalTimeout(), () -> {
+                if (chunked.applies(form.file.filePath())) {
+                    // one slot per chunk call, taken by ChunkedAnalysis
+                    limiter.checkRate(s.companyId);
+                    Map<String, Object> result = chunked.analyze(fileName, form.file.filePath(), prompt, model,
+                            streamId, s.companyId, null);
+                    cache.put(cacheKey, s, fileName, (String) result.get("model"), (String) result.get("markdown"),
+                            prompt, result);
+                    chunked.finish(streamId, result);
+                    return result;
+                }
+                try (var permit = limiter.acquire(s.companyId, model)) {
+                    return callUpstream(s, form, fileName, contentType, prompt, model, cacheKey);
+                }
+            });
+        } catch (Exception e) {
+            chunked.fail(streamId, e.getMessage());
+            throw e;
         }
+    }
 
+    private Map<String, Object> callUpstream(AiScenarioEntity s, PdfForm form, String fileName, String contentType,
+            String customPrompt, String model, String cacheKey) throws Exception {
         com.fasterxml.jackson.databind.JsonNode root =
-                new com.fasterxml.jackson.databind.ObjectMapper().readTree(response.body());
+                analyzer.analyzeUpload(customPrompt, model, fileName, contentType, form.file.filePath());
 
-        return Map.of(
+        Map<String, Object> result = Map.of(
                 "file", root.path("file_name").asText(),
                 "markdown", root.path("result_markdown").asText(),
                 "model", root.path("model").asText(),
@@ -79,43 +133,99 @@ public class PdfResource {
                 "prompt_used", root.path("prompt_used").asText(),
                 "text_bytes", root.path("text_bytes").asInt()
         );
+        cache.put(cacheKey, s, fileName, root.path("model").asText(), root.path("result_markdown").asText(),
+                root.path("prompt_used").asText(), result);
+        return result;
     }
 
-    private HttpRequest buildMultipartRequest(
-            String url,
-            Map<String, String> formFields,
-            String fileField,
-            String fileName,
-            String contentType,
-            byte[] fileBytes
-    ) throws IOException {
-        String boundary = "----Boundary" + UUID.randomUUID();
-        var builder = new StringBuilder();
-
-        for (Map.Entry<String, String> e : formFields.entrySet()) {
-            if (e.getValue() == null || e.getValue().isEmpty()) continue;
-            builder.append("--").append(boundary).append("\r\n");
-            builder.append("Content-Disposition: form-data; name=\"").append(e.getKey()).append("\"\r\n\r\n");
-            builder.append(e.getValue()).append("\r\n");
+    // -------------------- streaming --------------------
+    // markdown as the model writes it: SSE start / delta / done (see AnalysisStreamer); the run is saved at the end
+    @POST
+    @Path("/analyze/stream")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void streamPdf(PdfForm form, @Context SseEventSink sink, @Context Sse sse) throws Exception {
+        if (form == null || form.file == null) {
+            throw new BadRequestException("no files");
         }
+        AiScenarioEntity s = AiScenarioEntity.findById(UUID.fromString(form.id));
+        if (s == null || !Objects.equals(s.companyId, UUID.fromString(form.companyid)))
+            throw new NotFoundException();
 
-        builder.append("--").append(boundary).append("\r\n");
-        builder.append("Content-Disposition: form-data; name=\"").append(fileField)
-                .append("\"; filename=\"").append(fileName).append("\"\r\n");
-        builder.append("Content-Type: ").append(contentType != null ? contentType : "application/pdf").append("\r\n\r\n");
+        String customPrompt = s.promptTemplate;
+        String fileName = form.file.fileName();
+        String cacheKey = cache.key("pdf", s.id, customPrompt, null, null, List.of(form.file.filePath()));
+        // a cache hit costs no permit and records no run
+        if (streamer.replay(sink, sse, cacheKey))
+            return;
+
+        var body = new MultipartBodyPublisher();
+        if (customPrompt != null && !customPrompt.isEmpty())
+            body.field("custom_prompt", customPrompt);
+        body.file("file", fileName, form.file.contentType() != null ? form.file.contentType() : "application/pdf",
+                form.file.filePath());
+
+        try (var permit = limiter.acquire(s.companyId, null)) {
+            streamer.stream(sink, sse, s.id, fileName, null, customPrompt, cacheKey,
+                    body.post(streamer.url(false)).header("Accept", "text/event-stream"));
+        }
+    }
 
-        byte[] prefix = builder.toString().getBytes();
-        byte[] suffix = ("\r\n--" + boundary + "--\r\n").getBytes();
+    // -------------------- async --------------------
+    // returns at once with the queued run; poll /jobs/{runId} or follow /api/apps/streams/{streamId}
+    @POST
+    @Path("/analyze/jobs")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    public Response submitPdf(PdfForm form, @QueryParam("streamId") String streamId) throws Exception {
+        if (form == null || form.file == null) {
+            throw new BadRequestException("no files");
+        }
+        AiScenarioEntity s = AiScenarioEntity.findById(UUID.fromString(form.id));
+        if (s == null || !Objects.equals(s.companyId, UUID.fromString(form.companyid)))
+            throw new NotFoundException();
 
-        byte[] all = new byte[prefix.length + fileBytes.length + suffix.length];
-        System.arraycopy(prefix, 0, all, 0, prefix.length);
-        System.arraycopy(fileBytes, 0, all, prefix.length, fileBytes.length);
-        System.arraycopy(suffix, 0, all, prefix.length + fileBytes.length, suffix.length);
+        UUID scenarioId = s.id;
+        UUID companyId = s.companyId;
+        String customPrompt = s.promptTemplate;
+        limiter.checkRate(companyId);
+        var upload = jobs.spool(List.of(form.file));
+        AnalysisJobs.Upload f = upload.get(0);
+        try {
+            var job = jobs.submit(scenarioId, companyId, f.fileName(), null, streamId, upload, () -> {
+                String key = cache.key("pdf", scenarioId, customPrompt, null, null, List.of(f.path()));
+                Map<String, Object> cached = cache.get(key, run -> Map.of(
+                        "markdown", run.resultMarkdown == null ? "" : run.resultMarkdown,
+                        "model", run.modelUsed,
+                        "prompt_used", run.promptUsed == null ? "" : run.promptUsed));
+                if (cached != null)
+                    return new AnalysisJobs.Outcome((String) cached.get("model"), (String) cached.get("markdown"),
+                            (String) cached.get("prompt_used"), null);
+                if (chunked.applies(f.path())) {
+                    // a queued job can wait for company slots as long as an upstream call may take
+                    var r = chunked.analyze(f.fileName(), f.path(), customPrompt, null, streamId, companyId,
+                            ai.totalTimeout());
+                    return new AnalysisJobs.Outcome((String) r.get("model"), (String) r.get("markdown"),
+                            customPrompt, key);
+                }
+                var root = analyzer.analyzeUpload(customPrompt, null, f.fileName(), f.contentType(), f.path());
+                return new AnalysisJobs.Outcome(root.path("model").asText(), root.path("result_markdown").asText(),
+                        root.path("prompt_used").asText(), key);
+            });
+            return Response.accepted(job).build();
+        } catch (RejectedExecutionException e) {
+            throw new ClientErrorException(e.getMessage(), 429);
+        }
+    }
 
-        return HttpRequest.newBuilder()
-                .uri(java.net.URI.create(url))
-                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
-                .POST(HttpRequest.BodyPublishers.ofByteArray(all))
-                .build();
+    // same view as /api/scenarios/{id}/runs/{runId}: only the run's own company gets to read it
+    @GET
+    @Path("/jobs/{runId}")
+    public AnalysisJobDTO job(@PathParam("runId") UUID runId, @QueryParam("companyId") UUID companyId) {
+        if (companyId == null)
+            throw new BadRequestException("companyId required");
+        AiScenarioRunEntity run = runs.get(runId);
+        if (run == null || !Objects.equals(run.companyId, companyId))
+            throw new NotFoundException();
+        return jobs.view(run);
     }
 }
@@ -5,10 +5,13 @@ import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
 
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.acme.evolv.dto.AnalysisJobDTO;
 import org.acme.evolv.dto.AnalyzeProxyReq;
 import org.acme.evolv.dto.RunResponseDTO;
 import org.acme.evolv.dto.SampleDTO;
@@ -20,6 +23,9 @@ import org.acme.evolv.entity.AiScenarioEntity;
 import org.acme.evolv.entity.AiScenarioOptionEntity;
 import org.acme.evolv.entity.AiScenarioRunEntity;
 import org.acme.evolv.entity.AiScenarioSampleEntity;
+import org.acme.evolv.factory.services.AnalysisCache;
+import org.acme.evolv.factory.services.AnalysisJobs;
+import org.acme.evolv.factory.services.AnalysisLimiter;
 import org.acme.evolv.factory.services.PdfAnalyzeService;
 
 @Path("/api/scenarios")
@@ -30,6 +36,15 @@ public class ScenarioResource {
     @Inject
     PdfAnalyzeService analyzeService;
 
+    @Inject
+    AnalysisCache analysisCache;
+
+    @Inject
+    AnalysisJobs jobs;
+
+    @Inject
+    AnalysisLimiter limiter;
+
     // ---------- Basic ----------
     @GET
     public List<ScenarioBasicDTO> list(@QueryParam("companyId") String companyId) {
@@ -124,6 +139,7 @@ public class ScenarioResource {
         s.description = dto.description();
         s.promptTemplate = dto.promptTemplate();
         s.updatedAt = OffsetDateTime.now();
+        analysisCache.invalidateScenario(s.id);
 
         return new ScenarioBasicDTO(s.id, s.companyId.toString(), s.name, s.type, s.iconUrl,
                 s.tags == null ? List.of() : Arrays.asList(s.tags), s.description,s.promptTemplate);
@@ -134,6 +150,7 @@ public class ScenarioResource {
     @Transactional
     public Map<String, Object> delete(@PathParam("id") UUID id, @QueryParam("companyId") String companyId) {
         UUID ucompanyId = UUID.fromString(companyId);
+        analysisCache.invalidateScenario(id);
         long n = AiScenarioEntity.delete("id=?1 and companyId=?2", id, ucompanyId);
         return Map.of("deleted", n > 0);
     }
@@ -157,6 +174,7 @@ public class ScenarioResource {
             throw new NotFoundException();
         s.promptTemplate = dto.promptTemplate();
         s.updatedAt = java.time.OffsetDateTime.now();
+        analysisCache.invalidateScenario(s.id);
         return new ScenarioPromptDTO(s.promptTemplate);
     }
 
@@ -233,15 +251,46 @@ public class ScenarioResource {
         if (s == null || !Objects.equals(s.companyId, companyId))
             throw new NotFoundException();
 
+        // admission (AnalysisLimiter) inside, for the one caller that makes the upstream call
         AiScenarioRunEntity run = analyzeService.analyzeAndSave(s, req.fileName(), req.model());
-        if (run.companyId == null) {
-            run.companyId = s.companyId;
-            run.persist();
-        }
         return new RunResponseDTO(run.id, run.fileName, run.modelUsed,
                 run.resultMarkdown, run.promptUsed, run.status);
     }
 
+    // queued run returned at once; poll /{id}/runs/{runId} or follow /api/apps/streams/{streamId}
+    @POST
+    @Path("/{id}/analyze/jobs")
+    public Response submitAnalyze(@PathParam("id") UUID id, @QueryParam("companyId") UUID companyId,
+            @QueryParam("streamId") String streamId, AnalyzeProxyReq req) {
+        AiScenarioEntity s = AiScenarioEntity.findById(id);
+        if (s == null || !Objects.equals(s.companyId, companyId))
+            throw new NotFoundException();
+        if (req == null || req.fileName() == null || req.fileName().isBlank())
+            throw new BadRequestException("fileName required");
+
+        limiter.checkRate(s.companyId);
+        try {
+            var job = jobs.submit(s.id, s.companyId, req.fileName(), req.model(), streamId, List.of(), () -> {
+                var root = analyzeService.analyzeByName(req.fileName(), req.model());
+                return new AnalysisJobs.Outcome(req.model(), root.path("result_markdown").asText(),
+                        root.path("prompt_used").asText(), null);
+            });
+            return Response.accepted(job).build();
+        } catch (RejectedExecutionException e) {
+            throw new ClientErrorException(e.getMessage(), 429);
+        }
+    }
+
+    @GET
+    @Path("/{id}/runs/{runId}")
+    public AnalysisJobDTO run(@PathParam("id") UUID id, @PathParam("runId") UUID runId,
+            @QueryParam("companyId") UUID companyId) {
+        AiScenarioRunEntity run = AiScenarioRunEntity.findById(runId);
+        if (run == null || !run.scenario.id.equals(id) || !Objects.equals(run.companyId, companyId))
+            throw new NotFoundException();
+        return jobs.view(run);
+    }
+
     @GET
     @Path("/{id}/runs")
     public List<RunResponseDTO> runs(@PathParam("id") UUID id, @QueryParam("companyId") UUID companyId) {
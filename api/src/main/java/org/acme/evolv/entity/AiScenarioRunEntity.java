@@ -39,4 +39,11 @@ public class AiScenarioRunEntity extends PanacheEntityBase {
 
     @Column(name = "created_at", nullable = false)
     public OffsetDateTime createdAt;
+
+    /*
+     * AnalysisCache key (sha-256 of document(s) + prompt + question + model); null = not a cache entry.
+     * Column: db/migration/V1_0_13__ai_scenario_run_cache_key.sql
+     */
+    @Column(name = "cache_key", length = 64)
+    public String cacheKey;
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package org.acme.evolv.entity;
+
+import java.time.LocalDateTime;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.*;
+
+/*
+ * host port owned by an app container (see PortAllocator).
+ * Table: db/migration/V1_0_9__app_port.sql
+ */
+@Entity
+@Table(name = "app_port")
+public class AppPortEntity extends PanacheEntityBase {
+  public static final String RESERVED = "reserved";
+  public static final String ACTIVE = "active";
+
+  @Id
+  @Column(name = "port")
+  public Integer port;
+
+  @Column(name = "app_name", nullable = false, unique = true)
+  public String appName;
+
+  @Column(name = "company_id")
+  public String companyId;
+
+  @Column(name = "status", nullable = false)
+  public String status;
+
+  @Column(name = "updated_at", nullable = false)
+  public LocalDateTime updatedAt = LocalDateTime.now();
+}
@@ -0,0 +1,37 @@
+package org.acme.evolv.entity;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.*;
+
+/*
+ * one fleet-wide redeploy of the template (see FleetRollout); its tenants are fleet_rollout_target rows.
+ * Table: db/migration/V1_0_23__fleet_rollout.sql
+ */
+@Entity
+@Table(name = "fleet_rollout")
+public class FleetRolloutEntity extends PanacheEntityBase {
+    @Id public UUID id;
+
+    @Column(nullable = false) public String status;
+
+    @Column(name = "template_version", length = 64)
+    public String templateVersion;
+
+    @Column(nullable = false) public int parallelism;
+
+    @Column(name = "max_failures", nullable = false)
+    public int maxFailures;
+
+    @Column(nullable = false) public int total;
+
+    @Column(name = "error_message", columnDefinition = "text")
+    public String errorMessage;
+
+    @Column(name = "created_at", nullable = false)
+    public OffsetDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    public OffsetDateTime updatedAt;
+}
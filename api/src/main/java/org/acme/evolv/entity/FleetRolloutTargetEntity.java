@@ -0,0 +1,38 @@
+package org.acme.evolv.entity;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.*;
+
+/*
+ * one tenant of a fleet rollout.
+ * Table: db/migration/V1_0_23__fleet_rollout.sql
+ */
+@Entity
+@Table(name = "fleet_rollout_target")
+public class FleetRolloutTargetEntity extends PanacheEntityBase {
+    @Id public UUID id;
+
+    @Column(name = "rollout_id", nullable = false)
+    public UUID rolloutId;
+
+    @Column(name = "app_name", nullable = false)
+    public String appName;
+
+    @Column(name = "company_id")
+    public String companyId;
+
+    @Column(nullable = false) public String status;
+
+    @Column(nullable = false) public int attempts;
+
+    @Column(name = "error_message", columnDefinition = "text")
+    public String errorMessage;
+
+    @Column(name = "started_at")
+    public OffsetDateTime startedAt;
+
+    @Column(name = "finished_at")
+    public OffsetDateTime finishedAt;
+}
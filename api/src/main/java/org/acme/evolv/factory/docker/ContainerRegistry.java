@@ -0,0 +1,360 @@
+package org.acme.evolv.factory.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.quarkus.runtime.StartupEvent;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.utils.VueUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory view of the host's containers, so existence / state / port / image questions
+ * do not cost a docker inspect each.
+ * - startup: one bulk list (docker ps -a)
+ * - then kept current from the daemon's event stream (Engine API when docker.backend=api, else `docker events`)
+ * - create/start/rename re-inspect that one container; die/stop/destroy are applied directly
+ * - the stream dropping marks the registry not ready (callers fall back to inspect) until the next
+ *   list + resubscribe; events are replayed from just before the list, so nothing falls in between
+ * Host ports come from the port bindings of container port 80 (the nginx containers); stopped containers
+ * listed in bulk have none until they start again.
+ */
+@ApplicationScoped
+public class ContainerRegistry {
+
+    private static final Logger LOG = Logger.getLogger(ContainerRegistry.class);
+
+    private static final Duration MID = Duration.ofMinutes(5);
+    private static final Pattern CLI_PORT = Pattern.compile(":(\\d+)->80/tcp");
+
+    @Inject
+    DockerEngineClient engine;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "docker.backend", defaultValue = "cli")
+    String backend;
+
+    @ConfigProperty(name = "docker.registry.enabled", defaultValue = "true")
+    boolean enabled;
+
+    // wait before relisting + resubscribing after the event stream dropped
+    @ConfigProperty(name = "docker.registry.retry", defaultValue = "PT5S")
+    Duration retry;
+
+    /** One container as last seen. hostPort is null when unknown / not published. */
+    public record Container(String id, String name, String image, String state, boolean running, Integer hostPort,
+            long updatedAt) {
+
+        Container withState(String state, boolean running) {
+            return new Container(id, name, image, state, running, hostPort, System.currentTimeMillis());
+        }
+    }
+
+    private final Map<String, Container> byName = new ConcurrentHashMap<>();
+    private final Map<String, String> nameById = new ConcurrentHashMap<>();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+
+    private volatile boolean live;
+    private volatile boolean stopped;
+    private volatile Process cliEvents;
+    private boolean useApi;
+    private Thread watcher;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled)
+            return;
+        useApi = "api".equalsIgnoreCase(backend) && engine.available();
+        watcher = Thread.ofVirtual().name("docker-events").start(this::watch);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        stopped = true;
+        live = false;
+        Process p = cliEvents;
+        if (p != null)
+            p.destroy();
+        if (watcher != null)
+            watcher.interrupt();
+    }
+
+    // ---------- queries ----------
+
+    /*
+     * true while the registry is in sync with the daemon; otherwise ask docker directly.
+     */
+    public boolean ready() {
+        return live;
+    }
+
+    public Container get(String name) {
+        return byName.get(name);
+    }
+
+    /*
+     * containers whose name starts with prefix, by name.
+     */
+    public List<Container> list(String prefix) {
+        List<Container> out = new ArrayList<>();
+        for (Container c : byName.values()) {
+            if (prefix == null || c.name().startsWith(prefix))
+                out.add(c);
+        }
+        out.sort(Comparator.comparing(Container::name));
+        return out;
+    }
+
+    public Map<String, Object> stats() {
+        int running = 0;
+        for (Container c : byName.values()) {
+            if (c.running())
+                running++;
+        }
+        return Map.of(
+                "enabled", enabled,
+                "ready", live,
+                "source", useApi ? "api" : "cli",
+                "containers", byName.size(),
+                "running", running,
+                "events", events.get(),
+                "resyncs", resyncs.get());
+    }
+
+    // ---------- updates from our own calls (read-your-writes, ahead of the event) ----------
+
+    /*
+     * re-inspect one container by name or id (after docker run / start).
+     */
+    public void refresh(String container) {
+        if (!enabled)
+            return;
+        try {
+            JsonNode info = inspect(container);
+            if (info == null) {
+                String name = container.startsWith("/") ? container.substring(1) : container;
+                Container gone = byName.remove(name);
+                if (gone != null)
+                    nameById.remove(gone.id());
+                return;
+            }
+            put(fromInspect(info));
+        } catch (Exception e) {
+            LOG.debugf("registry: refresh %s failed: %s", container, e.getMessage());
+        }
+    }
+
+    /*
+     * drop a container we just removed.
+     */
+    public void forget(String name) {
+        Container gone = byName.remove(name);
+        if (gone != null)
+            nameById.remove(gone.id());
+    }
+
+    // ---------- sync loop ----------
+
+    private void watch() {
+        while (!stopped) {
+            try {
+                // events are replayed from here on, over the snapshot taken next
+                long since = Instant.now().getEpochSecond() - 1;
+                resync();
+                subscribe(since);
+            } catch (Exception e) {
+                if (!stopped)
+                    LOG.warnf("registry: docker event stream lost: %s", e.getMessage());
+            }
+            live = false;
+            if (stopped)
+                return;
+            try {
+                Thread.sleep(retry.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void resync() throws Exception {
+        Map<String, Container> fresh = new HashMap<>();
+        if (useApi) {
+            for (JsonNode n : engine.list(MID)) {
+                Container c = fromSummary(n);
+                fresh.put(c.name(), c);
+            }
+        } else {
+            VueUtils.runDirect(List.of(VueUtils.dockerCmd(), "ps", "-a", "--no-trunc", "--format", "{{json .}}"),
+                    null, MID, false, line -> {
+                        if (line.isBlank())
+                            return;
+                        try {
+                            Container c = fromCliSummary(mapper.readTree(line));
+                            fresh.put(c.name(), c);
+                        } catch (IOException e) {
+                            LOG.debugf("registry: bad ps line %s", line);
+                        }
+                    });
+        }
+        byName.keySet().retainAll(fresh.keySet());
+        byName.putAll(fresh);
+        nameById.clear();
+        fresh.values().forEach(c -> nameById.put(c.id(), c.name()));
+        resyncs.incrementAndGet();
+        LOG.infof("registry: %d container(s) listed", fresh.size());
+    }
+
+    private void subscribe(long since) throws Exception {
+        if (useApi) {
+            engine.containerEvents(since, in -> readEvents(new BufferedReader(
+                    new InputStreamReader(in, StandardCharsets.UTF_8))));
+            return;
+        }
+        Process p = new ProcessBuilder(VueUtils.dockerCmd(), "events", "--format", "{{json .}}",
+                "--filter", "type=container", "--since", Long.toString(since))
+                .redirectErrorStream(true)
+                .start();
+        cliEvents = p;
+        try (var in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            readEvents(in);
+        } finally {
+            p.destroy();
+            cliEvents = null;
+        }
+    }
+
+    private void readEvents(BufferedReader in) throws IOException {
+        live = true;
+        LOG.debugf("registry: following docker events");
+        String line;
+        while (!stopped && (line = in.readLine()) != null) {
+            if (line.isBlank())
+                continue;
+            try {
+                apply(mapper.readTree(line));
+            } catch (IOException e) {
+                LOG.debugf("registry: bad event line %s", line);
+            }
+        }
+    }
+
+    private void apply(JsonNode ev) {
+        if (!"container".equals(ev.path("Type").asText()))
+            return;
+        events.incrementAndGet();
+        String id = ev.path("Actor").path("ID").asText(ev.path("id").asText(""));
+        switch (ev.path("Action").asText()) {
+            case "create", "start", "restart", "rename", "update" -> refresh(id);
+            case "die", "stop" -> mark(id, "exited", false);
+            case "pause" -> mark(id, "paused", true);
+            case "unpause" -> mark(id, "running", true);
+            case "destroy" -> {
+                String name = nameById.remove(id);
+                if (name != null)
+                    byName.computeIfPresent(name, (k, c) -> c.id().equals(id) ? null : c);
+            }
+            default -> {
+                /* exec_*, attach, kill, health_status, ... change nothing we keep */
+            }
+        }
+    }
+
+    private void mark(String id, String state, boolean running) {
+        String name = nameById.get(id);
+        if (name != null)
+            byName.computeIfPresent(name, (k, c) -> c.id().equals(id) ? c.withState(state, running) : c);
+    }
+
+    private void put(Container c) {
+        String previous = nameById.put(c.id(), c.name());
+        if (previous != null && !previous.equals(c.name()))
+            byName.computeIfPresent(previous, (k, old) -> old.id().equals(c.id()) ? null : old); // renamed
+        Container replaced = byName.put(c.name(), c);
+        if (replaced != null && !replaced.id().equals(c.id()))
+            nameById.remove(replaced.id());
+    }
+
+    // ---------- parsing ----------
+
+    private JsonNode inspect(String container) throws Exception {
+        if (useApi)
+            return engine.inspect(container, MID);
+        String out;
+        try {
+            out = VueUtils.runDirect(List.of(VueUtils.dockerCmd(), "inspect", container), null, MID, false);
+        } catch (RuntimeException e) {
+            return null; // no such container
+        }
+        JsonNode arr = mapper.readTree(out);
+        return arr.isArray() && arr.size() > 0 ? arr.get(0) : null;
+    }
+
+    private static Container fromInspect(JsonNode n) {
+        String name = n.path("Name").asText();
+        if (name.startsWith("/"))
+            name = name.substring(1);
+        Integer port = hostPort(n.path("HostConfig").path("PortBindings").path("80/tcp"));
+        if (port == null)
+            port = hostPort(n.path("NetworkSettings").path("Ports").path("80/tcp"));
+        return new Container(n.path("Id").asText(), name, n.path("Config").path("Image").asText(),
+                n.path("State").path("Status").asText(), n.path("State").path("Running").asBoolean(false),
+                port, System.currentTimeMillis());
+    }
+
+    private static Integer hostPort(JsonNode bindings) {
+        for (JsonNode b : bindings) {
+            String p = b.path("HostPort").asText("");
+            if (!p.isEmpty())
+                return Integer.valueOf(p);
+        }
+        return null;
+    }
+
+    /* GET /containers/json entry */
+    private static Container fromSummary(JsonNode n) {
+        String name = n.path("Names").path(0).asText();
+        if (name.startsWith("/"))
+            name = name.substring(1);
+        Integer port = null;
+        for (JsonNode p : n.path("Ports")) {
+            if (p.path("PrivatePort").asInt() == 80 && p.hasNonNull("PublicPort")) {
+                port = p.path("PublicPort").asInt();
+                break;
+            }
+        }
+        String state = n.path("State").asText();
+        return new Container(n.path("Id").asText(), name, n.path("Image").asText(), state,
+                "running".equals(state) || "paused".equals(state), port, System.currentTimeMillis());
+    }
+
+    /* docker ps --format '{{json .}}' line */
+    private static Container fromCliSummary(JsonNode n) {
+        String name = n.path("Names").asText().split(",")[0];
+        Matcher m = CLI_PORT.matcher(n.path("Ports").asText(""));
+        Integer port = m.find() ? Integer.valueOf(m.group(1)) : null;
+        String state = n.path("State").asText();
+        return new Container(n.path("ID").asText(), name, n.path("Image").asText(), state,
+                "running".equals(state) || "paused".equals(state), port, System.currentTimeMillis());
+    }
+}
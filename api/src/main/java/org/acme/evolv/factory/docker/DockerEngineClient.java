@@ -0,0 +1,242 @@
+package org.acme.evolv.factory.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Docker Engine API over the daemon's Unix socket (no `docker` process per call).
+ * Used by DockerService when docker.backend=api.
+ * - containers: list, inspect, start, stop, create+start, remove, put archive, exec
+ * - images: inspect, tag
+ * - events: the daemon's event stream (ContainerRegistry)
+ * Image builds stay on the CLI (BuildKit sessions are not spoken here).
+ */
+@ApplicationScoped
+public class DockerEngineClient {
+
+    private static final Logger LOG = Logger.getLogger(DockerEngineClient.class);
+
+    private static final String JSON = "application/json";
+    private static final String TAR = "application/x-tar";
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "docker.host", defaultValue = "unix:///var/run/docker.sock")
+    String dockerHost;
+
+    @ConfigProperty(name = "docker.api.version", defaultValue = "v1.43")
+    String apiVersion;
+
+    @ConfigProperty(name = "docker.api.maxIdleConnections", defaultValue = "8")
+    int maxIdle;
+
+    private UnixSocketHttpClient http;
+    private Path socket;
+
+    /** Output and exit code of an exec. */
+    public record ExecResult(int exitCode, String output) {
+    }
+
+    @PostConstruct
+    void init() {
+        socket = Path.of(dockerHost.startsWith("unix://") ? dockerHost.substring("unix://".length()) : dockerHost);
+        http = new UnixSocketHttpClient(socket, maxIdle);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        http.close();
+    }
+
+    public boolean available() {
+        return Files.exists(socket);
+    }
+
+    // ---------- containers ----------
+
+    /*
+     * docker ps -a: one summary object per container (Id, Names, Image, State, Ports).
+     */
+    public JsonNode list(Duration timeout) throws IOException {
+        var r = http.send("GET", api("/containers/json?all=1"), null, null, timeout);
+        return mapper.readTree(check(r, "list containers").body());
+    }
+
+    /*
+     * container JSON, or null if it does not exist.
+     */
+    public JsonNode inspect(String container, Duration timeout) throws IOException {
+        var r = http.send("GET", api("/containers/" + enc(container) + "/json"), null, null, timeout);
+        if (r.status() == 404)
+            return null;
+        return mapper.readTree(check(r, "inspect " + container).body());
+    }
+
+    public void start(String container, Duration timeout) throws IOException {
+        var r = http.send("POST", api("/containers/" + enc(container) + "/start"), null, null, timeout);
+        if (r.status() != 304) // 304 = already started
+            check(r, "start " + container);
+    }
+
+    public void stop(String container, int graceSeconds, Duration timeout) throws IOException {
+        var r = http.send("POST", api("/containers/" + enc(container) + "/stop?t=" + graceSeconds), null, null,
+                timeout);
+        if (r.status() != 304) // 304 = already stopped
+            check(r, "stop " + container);
+    }
+
+    /*
+     * docker run -d --name container -p hostPort:80 image
+     */
+    public String createAndStart(String container, int hostPort, String image, Duration timeout)
+            throws IOException {
+        ObjectNode body = mapper.createObjectNode();
+        body.put("Image", image);
+        body.putObject("ExposedPorts").putObject("80/tcp");
+        body.putObject("HostConfig").putObject("PortBindings").putArray("80/tcp")
+                .addObject().put("HostPort", String.valueOf(hostPort));
+
+        var r = http.send("POST", api("/containers/create?name=" + enc(container)), JSON,
+                mapper.writeValueAsBytes(body), timeout);
+        String id = mapper.readTree(check(r, "create " + container).body()).path("Id").asText();
+        start(id, timeout);
+        return id;
+    }
+
+    /*
+     * docker rm -f; returns false if the container did not exist.
+     */
+    public boolean removeForce(String container, Duration timeout) throws IOException {
+        var r = http.send("DELETE", api("/containers/" + enc(container) + "?force=true"), null, null, timeout);
+        if (r.status() == 404)
+            return false;
+        check(r, "rm " + container);
+        return true;
+    }
+
+    /*
+     * extract a tar stream into dir inside the container (PUT /containers/{id}/archive).
+     */
+    public void putArchive(String container, String dir, UnixSocketHttpClient.BodyWriter tar, Duration timeout)
+            throws IOException {
+        var r = http.sendStreaming("PUT",
+                api("/containers/" + enc(container) + "/archive?path=" + enc(dir)), TAR, tar, timeout);
+        check(r, "put archive " + container + ":" + dir);
+    }
+
+    /*
+     * run cmd in the container, wait for it and return its combined output + exit code.
+     */
+    public ExecResult exec(String container, List<String> cmd, Duration timeout) throws IOException {
+        ObjectNode create = mapper.createObjectNode();
+        create.put("AttachStdout", true);
+        create.put("AttachStderr", true);
+        var arr = create.putArray("Cmd");
+        cmd.forEach(arr::add);
+        var r = http.send("POST", api("/containers/" + enc(container) + "/exec"), JSON,
+                mapper.writeValueAsBytes(create), timeout);
+        String execId = mapper.readTree(check(r, "exec create " + container).body()).path("Id").asText();
+
+        ObjectNode start = mapper.createObjectNode();
+        start.put("Detach", false);
+        start.put("Tty", false);
+        var out = http.send("POST", api("/exec/" + execId + "/start"), JSON, mapper.writeValueAsBytes(start),
+                timeout);
+        check(out, "exec start " + container);
+
+        var info = http.send("GET", api("/exec/" + execId + "/json"), null, null, timeout);
+        int exitCode = mapper.readTree(check(info, "exec inspect " + container).body()).path("ExitCode").asInt(-1);
+        return new ExecResult(exitCode, demux(out.body()));
+    }
+
+    // ---------- images ----------
+
+    public boolean imageExists(String image, Duration timeout) throws IOException {
+        var r = http.send("GET", api("/images/" + image + "/json"), null, null, timeout);
+        if (r.status() == 404)
+            return false;
+        check(r, "image inspect " + image);
+        return true;
+    }
+
+    public void tag(String image, String alias, Duration timeout) throws IOException {
+        int colon = alias.lastIndexOf(':');
+        boolean hasTag = colon > alias.lastIndexOf('/');
+        String repo = hasTag ? alias.substring(0, colon) : alias;
+        String tag = hasTag ? alias.substring(colon + 1) : "latest";
+        var r = http.send("POST", api("/images/" + image + "/tag?repo=" + enc(repo) + "&tag=" + enc(tag)),
+                null, null, timeout);
+        check(r, "tag " + image + " " + alias);
+    }
+
+    // ---------- events ----------
+
+    /*
+     * container events since the given epoch second, one JSON object per line, handed to reader
+     * as they happen. Blocks until the daemon ends the stream (or the reader throws).
+     */
+    public void containerEvents(long since, UnixSocketHttpClient.BodyReader reader) throws IOException {
+        String filters = enc("{\"type\":[\"container\"]}");
+        var r = http.receiveStreaming("GET", api("/events?since=" + since + "&filters=" + filters), reader, null);
+        check(r, "events");
+    }
+
+    // ---------- helpers ----------
+
+    private String api(String path) {
+        return "/" + apiVersion + path;
+    }
+
+    private static String enc(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    private static UnixSocketHttpClient.Response check(UnixSocketHttpClient.Response r, String what) {
+        if (!r.ok()) {
+            String msg = r.bodyAsString().trim();
+            LOG.debugf("docker api %s -> %d %s", what, r.status(), msg);
+            throw new RuntimeException("Docker API failed(" + r.status() + "): " + what + "\n" + msg);
+        }
+        return r;
+    }
+
+    /*
+     * split the multiplexed stdout/stderr stream: [type, 0, 0, 0, size(4, big endian)] + payload.
+     * Falls back to the raw bytes when the stream is not multiplexed (tty).
+     */
+    static String demux(byte[] raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length);
+        int i = 0;
+        while (i + 8 <= raw.length) {
+            int type = raw[i];
+            if (type < 0 || type > 2 || raw[i + 1] != 0 || raw[i + 2] != 0 || raw[i + 3] != 0) {
+                return new String(raw, StandardCharsets.UTF_8);
+            }
+            int size = ((raw[i + 4] & 0xff) << 24) | ((raw[i + 5] & 0xff) << 16)
+                    | ((raw[i + 6] & 0xff) << 8) | (raw[i + 7] & 0xff);
+            int end = Math.min(raw.length, i + 8 + size);
+            out.write(raw, i + 8, end - (i + 8));
+            i = end;
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,365 @@
+package org.acme.evolv.factory.docker;
+
+import org.jboss.logging.Logger;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Minimal HTTP/1.1 client over a Unix domain socket (Java 16+), for the Docker Engine API.
+ * - keep-alive connections are pooled and reused
+ * - request bodies: byte[] (Content-Length) or streamed (chunked)
+ * - response bodies: Content-Length, chunked, or read-to-EOF (hijacked streams; connection is dropped)
+ * - timeouts close the channel from a watchdog, which unblocks the pending read
+ * Not a general purpose client: no redirects, no pipelining, no TLS.
+ */
+public final class UnixSocketHttpClient implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(UnixSocketHttpClient.class);
+
+    /** Writes a request body; used for streamed (chunked) uploads such as tar archives. */
+    @FunctionalInterface
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Receives a streamed response body, e.g. docker events. */
+    @FunctionalInterface
+    public interface BodyReader {
+        void readFrom(InputStream in) throws IOException;
+    }
+
+    public record Response(int status, Map<String, String> headers, byte[] body) {
+        public String bodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        public boolean ok() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    private final UnixDomainSocketAddress address;
+    private final int maxIdle;
+    private final BlockingDeque<SocketChannel> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "uds-http-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public UnixSocketHttpClient(Path socket, int maxIdle) {
+        this.address = UnixDomainSocketAddress.of(socket);
+        this.maxIdle = maxIdle;
+    }
+
+    public Response send(String method, String path, String contentType, byte[] body, Duration timeout)
+            throws IOException {
+        BodyWriter writer = body == null ? null : out -> out.write(body);
+        return exchange(method, path, contentType, writer, body == null ? 0 : body.length, null, timeout);
+    }
+
+    /*
+     * streamed request body (Transfer-Encoding: chunked); nothing is buffered in memory.
+     */
+    public Response sendStreaming(String method, String path, String contentType, BodyWriter writer,
+            Duration timeout) throws IOException {
+        return exchange(method, path, contentType, writer, -1, null, timeout);
+    }
+
+    /*
+     * hand the response body to reader as it arrives (long-lived streams).
+     * The returned Response has an empty body.
+     */
+    public Response receiveStreaming(String method, String path, BodyReader reader, Duration timeout)
+            throws IOException {
+        return exchange(method, path, null, null, 0, reader, timeout);
+    }
+
+    // ---------- exchange ----------
+
+    private Response exchange(String method, String path, String contentType, BodyWriter writer,
+            long contentLength, BodyReader reader, Duration timeout) throws IOException {
+        SocketChannel ch = acquire();
+        ScheduledFuture<?> guard = timeout == null ? null
+                : watchdog.schedule(() -> closeQuietly(ch), timeout.toMillis(), TimeUnit.MILLISECONDS);
+        boolean reusable = false;
+        try {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch), 64 * 1024);
+            writeHead(out, method, path, contentType, writer == null ? -2 : contentLength);
+            if (writer != null) {
+                if (contentLength >= 0) {
+                    writer.writeTo(out);
+                } else {
+                    ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+                    writer.writeTo(chunked);
+                    chunked.finish();
+                }
+            }
+            out.flush();
+
+            InputStream in = new BufferedInputStream(Channels.newInputStream(ch), 64 * 1024);
+            int status = readStatus(in);
+            Map<String, String> headers = readHeaders(in);
+
+            String te = headers.getOrDefault("transfer-encoding", "");
+            String cl = headers.get("content-length");
+            InputStream body;
+            if (te.toLowerCase(Locale.ROOT).contains("chunked")) {
+                body = new ChunkedInputStream(in);
+                reusable = true;
+            } else if (cl != null) {
+                body = new BoundedInputStream(in, Long.parseLong(cl.trim()));
+                reusable = true;
+            } else if (status == 204 || status == 304) {
+                body = InputStream.nullInputStream();
+                reusable = true;
+            } else {
+                body = in; // until EOF (hijacked / raw stream)
+            }
+            if (!"keep-alive".equalsIgnoreCase(headers.getOrDefault("connection", "keep-alive"))) {
+                reusable = false;
+            }
+
+            byte[] bytes;
+            if (reader != null) {
+                reader.readFrom(body);
+                drain(body);
+                bytes = new byte[0];
+            } else {
+                bytes = body.readAllBytes();
+            }
+            return new Response(status, headers, bytes);
+        } catch (IOException e) {
+            reusable = false;
+            if (guard != null && guard.isDone()) {
+                throw new IOException("docker api timeout: " + method + " " + path, e);
+            }
+            throw e;
+        } finally {
+            if (guard != null)
+                guard.cancel(false);
+            if (reusable && ch.isOpen()) {
+                release(ch);
+            } else {
+                closeQuietly(ch);
+            }
+        }
+    }
+
+    private void writeHead(OutputStream out, String method, String path, String contentType, long contentLength)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        sb.append("Host: docker\r\n");
+        sb.append("Connection: keep-alive\r\n");
+        if (contentType != null)
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+        if (contentLength >= 0)
+            sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        else if (contentLength == -1)
+            sb.append("Transfer-Encoding: chunked\r\n");
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static int readStatus(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null)
+            throw new EOFException("connection closed before response");
+        // HTTP/1.1 200 OK
+        String[] parts = line.split(" ", 3);
+        if (parts.length < 2)
+            throw new IOException("bad status line: " + line);
+        return Integer.parseInt(parts[1]);
+    }
+
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int idx = line.indexOf(':');
+            if (idx > 0) {
+                headers.put(line.substring(0, idx).trim().toLowerCase(Locale.ROOT), line.substring(idx + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n')
+                break;
+            if (c != '\r')
+                buf.write(c);
+        }
+        if (c == -1 && buf.size() == 0)
+            return null;
+        return buf.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buf = new byte[8192];
+        while (in.read(buf) != -1) {
+            // discard
+        }
+    }
+
+    // ---------- pool ----------
+
+    private SocketChannel acquire() throws IOException {
+        SocketChannel ch;
+        while ((ch = idle.pollFirst()) != null) {
+            if (ch.isOpen())
+                return ch;
+        }
+        ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        ch.connect(address);
+        return ch;
+    }
+
+    private void release(SocketChannel ch) {
+        if (idle.size() < maxIdle) {
+            idle.offerFirst(ch);
+        } else {
+            closeQuietly(ch);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException e) {
+            LOG.debugf("close failed: %s", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        SocketChannel ch;
+        while ((ch = idle.pollFirst()) != null) {
+            closeQuietly(ch);
+        }
+        watchdog.shutdownNow();
+    }
+
+    // ---------- body streams ----------
+
+    private static final class ChunkedOutputStream extends FilterOutputStream {
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(b, off, len);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void finish() throws IOException {
+            out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            // the channel belongs to the pool
+        }
+    }
+
+    private static final class ChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+        private boolean eof;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof)
+                return -1;
+            if (remaining == 0) {
+                String size = readLine(in);
+                if (size == null)
+                    throw new EOFException("truncated chunked body");
+                int semi = size.indexOf(';');
+                remaining = Long.parseLong((semi >= 0 ? size.substring(0, semi) : size).trim(), 16);
+                if (remaining == 0) {
+                    // trailers until empty line
+                    String line;
+                    while ((line = readLine(in)) != null && !line.isEmpty()) {
+                        // ignore
+                    }
+                    eof = true;
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1)
+                throw new EOFException("truncated chunk");
+            remaining -= n;
+            if (remaining == 0)
+                readLine(in); // CRLF after chunk data
+            return n;
+        }
+    }
+
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int c = in.read();
+            if (c != -1)
+                remaining--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0)
+                remaining -= n;
+            return n;
+        }
+    }
+}
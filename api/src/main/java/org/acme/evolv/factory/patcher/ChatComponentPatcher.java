@@ -2,12 +2,19 @@ package org.acme.evolv.factory.patcher;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.jboss.logging.Logger;
 
 public class ChatComponentPatcher {
     private static final Logger LOG = Logger.getLogger(ChatComponentPatcher.class);
 
+    /** Global the runtime config.js assigns before the bundle runs. */
+    public static final String RUNTIME_CFG_GLOBAL = "__CHAT_CONFIG__";
+
+    private static final String RUNTIME_CFG_DECL =
+        "const RUNTIME_CFG: any = (window as any)." + RUNTIME_CFG_GLOBAL + " || {};";
+
     public void patch(Path appDir, String apiUrl, String header, String initMessage, String avatarUrl, String messageIcon) throws Exception {
         Path p = findChatComponent(appDir);
         if (p == null) {
@@ -50,6 +57,63 @@ public class ChatComponentPatcher {
         LOG.infof("[ChatComponentPatcher] Patched %s", p);
     }
 
+    /*
+     * Runtime mode: instead of baking values in, make the component read them from
+     * window.__CHAT_CONFIG__ (set by config.js, written per tenant next to the shared dist).
+     */
+    public void patchRuntime(Path appDir) throws Exception {
+        Path p = findChatComponent(appDir);
+        if (p == null) {
+            LOG.warnf("[ChatComponentPatcher] ChatComponent.tsx not found under %s", appDir);
+            return;
+        }
+
+        String text = Files.readString(p, StandardCharsets.UTF_8);
+        if (!text.contains(RUNTIME_CFG_DECL)) {
+            text = insertAfterImports(text, RUNTIME_CFG_DECL + "\n");
+        }
+
+        text = replaceFirstRegex(text,
+            "const\\s+API_URL\\s*=\\s*[\"'][^\"']*[\"'];?",
+            "const API_URL: string = RUNTIME_CFG.apiUrl ?? \"\";"
+        );
+        text = text.replaceAll("fetch\\(\\s*[\"']\\/api\\/ask[\"']\\s*,", "fetch(API_URL,");
+        text = text.replaceAll("\\$\\{\\s*import\\.meta\\.env\\.VITE_API_BASE_URL\\s*\\}\\s*\\/ask",
+            Matcher.quoteReplacement("${RUNTIME_CFG.apiUrl ?? \"\"}"));
+        text = replaceFirstRegex(text,
+            "const\\s+COMPANY_AVATAR\\s*=\\s*[\"'][^\"']*[\"'];?",
+            "const COMPANY_AVATAR: string = RUNTIME_CFG.messageIconUrl ?? \"\";"
+        );
+        text = replaceFirstRegex(text,
+            "const\\s+INIT_MESSAGE\\s*=\\s*[\"`][\\s\\S]*?[\"`];?",
+            "const INIT_MESSAGE: string = RUNTIME_CFG.welcomeText ?? \"\";"
+        );
+
+        // placeholders -> JSX expressions
+        text = replacePlaceholder(text, "img_avatar", "RUNTIME_CFG.messageIconUrl");
+        text = replacePlaceholder(text, "chat_title", "RUNTIME_CFG.headerText");
+        text = replacePlaceholder(text, "init_message", "RUNTIME_CFG.welcomeText");
+        text = replacePlaceholder(text, "api_url", "RUNTIME_CFG.apiUrl");
+        text = replacePlaceholder(text, "img_title", "RUNTIME_CFG.headerIconUrl");
+
+        Files.writeString(p, text, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+        LOG.infof("[ChatComponentPatcher] Patched (runtime) %s", p);
+    }
+
+    private static String replacePlaceholder(String text, String name, String expr) {
+        // "{x}" / '{x}' inside an attribute string must lose its quotes to become an expression
+        text = text.replaceAll("[\"']\\{" + name + "\\}[\"']", Matcher.quoteReplacement("{" + expr + "}"));
+        return text.replace("{" + name + "}", "{" + expr + "}");
+    }
+
+    private static String insertAfterImports(String src, String decl) {
+        Matcher m = Pattern.compile("^import\\s[\\s\\S]*?[\"'][^\"'\\n]+[\"'][ \\t]*;?[ \\t]*$", Pattern.MULTILINE).matcher(src);
+        int end = 0;
+        while (m.find()) end = m.end();
+        if (end == 0) return decl + src;
+        return src.substring(0, end) + "\n" + decl + src.substring(end);
+    }
+
     private Path findChatComponent(Path appDir) {
         Path p = appDir.resolve("src/ChatComponent.tsx");
         if (Files.exists(p)) return p;
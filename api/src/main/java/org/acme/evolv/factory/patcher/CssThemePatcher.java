@@ -11,6 +11,16 @@ import org.jboss.logging.Logger;
 public class CssThemePatcher {
     private static final Logger LOG = Logger.getLogger(CssThemePatcher.class);
 
+    /** Template placeholder -> CSS variable it stands for. */
+    private static final Map<String,String> PLACEHOLDER_VARS = Map.of(
+        "\\{theme_primary\\}", "--brand-primary",
+        "\\{content_bg\\}",   "--app-bg",
+        "\\{footer_bg\\}",    "--footer-bg",
+        "\\{text_color\\}",   "--color-text-1",
+        "\\{bubble_user\\}",  "--bubble-user",
+        "\\{bubble_bot\\}",   "--bubble-bot"
+    );
+
     /** Theme configuration (can be extended as needed) */
     public static record ThemeCfg(
         String primary,     // --brand-primary
@@ -44,17 +54,48 @@ public class CssThemePatcher {
         }
 
         // Ensure that a :root block exists with CSS variables — create one if missing.
-        t = upsertRootCssVars(t, Map.of(
+        t = upsertRootCssVars(t, cssVars(cfg));
+
+        Files.writeString(css, t, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+        LOG.infof("[CssThemePatcher] Patched %s", css);
+    }
+
+    /**
+     * Runtime mode: leave colors out of the build. Placeholders become var(--...) references,
+     * the values come from the theme.css written next to the shared dist (see {@link #renderThemeCss}).
+     */
+    public void patchRuntime(Path appDir) throws Exception {
+        Path css = resolveCss(appDir);
+        if (css == null) {
+            LOG.warnf("[CssThemePatcher] CSS file not found under %s", appDir);
+            return;
+        }
+        String t = Files.readString(css, StandardCharsets.UTF_8);
+        for (var e : PLACEHOLDER_VARS.entrySet()) {
+            t = t.replaceAll(e.getKey(), Matcher.quoteReplacement("var(" + e.getValue() + ")"));
+        }
+        Files.writeString(css, t, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+        LOG.infof("[CssThemePatcher] Patched (runtime) %s", css);
+    }
+
+    /** :root block with the theme variables, loaded after the bundle's own CSS so it wins. */
+    public String renderThemeCss(ThemeCfg cfg) {
+        StringBuilder sb = new StringBuilder(":root{\n");
+        cssVars(cfg).forEach((k, v) -> {
+            if (!v.isEmpty()) sb.append("  ").append(k).append(": ").append(v).append(";\n");
+        });
+        return sb.append("}\n").toString();
+    }
+
+    private static Map<String,String> cssVars(ThemeCfg cfg) {
+        return Map.of(
             "--brand-primary", nn(cfg.primary()),
             "--app-bg",        nn(cfg.contentBg()),
             "--footer-bg",     nn(cfg.footerBg()),
             "--color-text-1",  nn(cfg.textColor()),
             "--bubble-user",   nn(cfg.bubbleUser()),
             "--bubble-bot",    nn(cfg.bubbleBot())
-        ));
-
-        Files.writeString(css, t, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
-        LOG.infof("[CssThemePatcher] Patched %s", css);
+        );
     }
 
     private Path resolveCss(Path appDir) {
@@ -0,0 +1,87 @@
+package org.acme.evolv.factory.repository;
+
+import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.transaction.Transactional;
+
+import org.acme.evolv.entity.AiScenarioEntity;
+import org.acme.evolv.entity.AiScenarioRunEntity;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/*
+ * ai_scenario_run writes as short transactions of their own, so no DB connection is held
+ * while the analysis itself runs (see AnalysisJobs).
+ */
+@ApplicationScoped
+public class AnalysisRunRepository implements PanacheRepositoryBase<AiScenarioRunEntity, UUID> {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+
+    @Transactional
+    public AiScenarioRunEntity createQueued(UUID scenarioId, String userId, String fileName, String model) {
+        AiScenarioEntity scenario = AiScenarioEntity.findById(scenarioId);
+        AiScenarioRunEntity run = new AiScenarioRunEntity();
+        run.id = UUID.randomUUID();
+        run.scenario = scenario;
+        run.companyId = scenario.companyId;
+        run.userId = userId == null ? "" : userId;
+        run.fileName = fileName;
+        run.modelUsed = model == null ? "" : model;
+        run.status = QUEUED;
+        run.createdAt = OffsetDateTime.now();
+        persist(run);
+        return run;
+    }
+
+    @Transactional
+    public AiScenarioRunEntity saveDone(UUID scenarioId, String userId, String fileName, String model,
+            String markdown, String promptUsed) {
+        AiScenarioRunEntity run = createQueued(scenarioId, userId, fileName, model);
+        run.resultMarkdown = markdown;
+        run.promptUsed = promptUsed;
+        run.status = DONE;
+        return run;
+    }
+
+    @Transactional
+    public void markRunning(UUID runId) {
+        update("status = ?1 where id = ?2", RUNNING, runId);
+    }
+
+    @Transactional
+    public void complete(UUID runId, String model, String markdown, String promptUsed, String cacheKey) {
+        AiScenarioRunEntity run = findById(runId);
+        if (run == null)
+            return;
+        if (model != null && !model.isBlank())
+            run.modelUsed = model;
+        run.resultMarkdown = markdown;
+        run.promptUsed = promptUsed;
+        run.status = DONE;
+        run.errorMessage = null;
+        run.cacheKey = cacheKey;
+    }
+
+    @Transactional
+    public void fail(UUID runId, String message) {
+        update("status = ?1, errorMessage = ?2 where id = ?3", FAILED, message, runId);
+    }
+
+    /*
+     * runs left queued/running by a previous process; their work is gone with it.
+     */
+    @Transactional
+    public int failUnfinished(String message) {
+        return update("status = ?1, errorMessage = ?2 where status in (?3, ?4)", FAILED, message, QUEUED, RUNNING);
+    }
+
+    @Transactional
+    public AiScenarioRunEntity get(UUID runId) {
+        return findById(runId);
+    }
+}
@@ -0,0 +1,162 @@
+package org.acme.evolv.factory.repository;
+
+import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
+import io.quarkus.panache.common.Sort;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.transaction.Transactional;
+
+import org.acme.evolv.dto.RolloutDTO;
+import org.acme.evolv.entity.AppPortEntity;
+import org.acme.evolv.entity.FleetRolloutEntity;
+import org.acme.evolv.entity.FleetRolloutTargetEntity;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * fleet_rollout / fleet_rollout_target, each write its own short transaction (see FleetRollout).
+ */
+@ApplicationScoped
+public class FleetRolloutRepository implements PanacheRepositoryBase<FleetRolloutEntity, UUID> {
+
+    // rollout
+    public static final String RUNNING = "running";
+    public static final String PAUSED = "paused";
+    public static final String HALTED = "halted";
+    public static final String INTERRUPTED = "interrupted";
+    public static final String DONE = "done";
+
+    // target
+    public static final String PENDING = "pending";
+    public static final String FAILED = "failed";
+
+    /*
+     * deployed container tenants: the app_port rows whose container came up.
+     */
+    @Transactional
+    public List<AppPortEntity> tenants() {
+        return AppPortEntity.list("status", Sort.by("appName"), AppPortEntity.ACTIVE);
+    }
+
+    @Transactional
+    public FleetRolloutEntity create(String templateVersion, int parallelism, int maxFailures,
+            List<AppPortEntity> tenants) {
+        OffsetDateTime now = OffsetDateTime.now();
+        FleetRolloutEntity r = new FleetRolloutEntity();
+        r.id = UUID.randomUUID();
+        r.status = RUNNING;
+        r.templateVersion = templateVersion;
+        r.parallelism = parallelism;
+        r.maxFailures = maxFailures;
+        r.total = tenants.size();
+        r.createdAt = now;
+        r.updatedAt = now;
+        persist(r);
+        for (AppPortEntity app : tenants) {
+            FleetRolloutTargetEntity t = new FleetRolloutTargetEntity();
+            t.id = UUID.randomUUID();
+            t.rolloutId = r.id;
+            t.appName = app.appName;
+            t.companyId = app.companyId;
+            t.status = PENDING;
+            t.persist();
+        }
+        return r;
+    }
+
+    @Transactional
+    public FleetRolloutEntity get(UUID id) {
+        return findById(id);
+    }
+
+    @Transactional
+    public FleetRolloutEntity active() {
+        return find("status", RUNNING).firstResult();
+    }
+
+    @Transactional
+    public void setStatus(UUID id, String status, String error) {
+        update("status = ?1, errorMessage = ?2, updatedAt = ?3 where id = ?4", status, error, OffsetDateTime.now(),
+                id);
+    }
+
+    @Transactional
+    public List<FleetRolloutTargetEntity> pending(UUID id) {
+        return FleetRolloutTargetEntity.list("rolloutId = ?1 and status = ?2", Sort.by("appName"), id, PENDING);
+    }
+
+    @Transactional
+    public void targetRunning(UUID targetId) {
+        FleetRolloutTargetEntity.update(
+                "status = ?1, attempts = attempts + 1, startedAt = ?2, finishedAt = null, errorMessage = null"
+                        + " where id = ?3",
+                RUNNING, OffsetDateTime.now(), targetId);
+    }
+
+    /*
+     * not started after all (rollout paused while it waited for the build queue); the attempt does not count.
+     */
+    @Transactional
+    public void targetPending(UUID targetId) {
+        FleetRolloutTargetEntity.update(
+                "status = ?1, attempts = attempts - 1, startedAt = null where id = ?2 and attempts > 0",
+                PENDING, targetId);
+    }
+
+    @Transactional
+    public void targetFinished(UUID targetId, String status, String error) {
+        FleetRolloutTargetEntity.update("status = ?1, errorMessage = ?2, finishedAt = ?3 where id = ?4",
+                status, error, OffsetDateTime.now(), targetId);
+    }
+
+    /*
+     * back to running: targets cut off mid-build (and, if asked, the failed ones) are pending again.
+     */
+    @Transactional
+    public void resume(UUID id, boolean retryFailed) {
+        FleetRolloutTargetEntity.update("status = ?1 where rolloutId = ?2 and status = ?3", PENDING, id, RUNNING);
+        if (retryFailed)
+            FleetRolloutTargetEntity.update("status = ?1 where rolloutId = ?2 and status = ?3", PENDING, id, FAILED);
+        setStatus(id, RUNNING, null);
+    }
+
+    /*
+     * rollouts left running by a previous process: resumable, their in-flight targets start over.
+     */
+    @Transactional
+    public int interruptRunning() {
+        List<FleetRolloutEntity> running = list("status", RUNNING);
+        for (FleetRolloutEntity r : running) {
+            FleetRolloutTargetEntity.update("status = ?1 where rolloutId = ?2 and status = ?3",
+                    PENDING, r.id, RUNNING);
+            r.status = INTERRUPTED;
+            r.updatedAt = OffsetDateTime.now();
+        }
+        return running.size();
+    }
+
+    @Transactional
+    public RolloutDTO view(UUID id, boolean withTargets) {
+        FleetRolloutEntity r = findById(id);
+        if (r == null)
+            return null;
+        List<FleetRolloutTargetEntity> rows = FleetRolloutTargetEntity.list("rolloutId", Sort.by("appName"), id);
+        int done = 0, failed = 0, pending = 0, running = 0;
+        List<RolloutDTO.Target> targets = new ArrayList<>();
+        for (FleetRolloutTargetEntity t : rows) {
+            switch (t.status) {
+                case DONE -> done++;
+                case FAILED -> failed++;
+                case RUNNING -> running++;
+                default -> pending++;
+            }
+            if (withTargets)
+                targets.add(new RolloutDTO.Target(t.appName, t.companyId, t.status, t.attempts, t.errorMessage,
+                        t.startedAt, t.finishedAt));
+        }
+        return new RolloutDTO(r.id, r.status, r.templateVersion, r.parallelism, r.maxFailures, r.total,
+                done, failed, pending, running, r.errorMessage, r.createdAt, r.updatedAt, targets);
+    }
+}
@@ -0,0 +1,367 @@
+package org.acme.evolv.factory.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one HttpClient for the Python AI API, balanced over ai.api.urls (default: just ai.api.url).
+ * - shared for the app's lifetime: keep-alive connections are pooled and reused
+ * - HTTP/2 when the API is https (ALPN), HTTP/1.1 otherwise (no h2c upgrade attempts)
+ * - timeouts: connect, read (until response headers), total (whole exchange incl. body)
+ * - at most ai.api.maxConcurrent calls in flight overall, ai.api.maxConcurrentPerBackend per backend
+ * - routing: least outstanding requests among healthy backends; a backend that cannot be
+ *   connected to is skipped and the call goes to the next one
+ * - ejection: ai.api.ejectAfterFailures failures in a row (connect errors, 5xx) or a failed
+ *   health check (GET ai.api.healthPath every ai.api.healthInterval) takes a backend out for ai.api.ejectFor
+ * Callers build requests against url(path); send() re-targets them to the chosen backend.
+ */
+@ApplicationScoped
+public class AiApiClient {
+
+    private static final Logger LOG = Logger.getLogger(AiApiClient.class);
+
+    @ConfigProperty(name = "ai.api.url")
+    String baseUrl;
+
+    // comma separated; when set, replaces ai.api.url as the backend list
+    @ConfigProperty(name = "ai.api.urls")
+    Optional<List<String>> baseUrls;
+
+    @ConfigProperty(name = "ai.api.connectTimeout", defaultValue = "PT5S")
+    Duration connectTimeout;
+
+    @ConfigProperty(name = "ai.api.readTimeout", defaultValue = "PT5M")
+    Duration readTimeout;
+
+    @ConfigProperty(name = "ai.api.totalTimeout", defaultValue = "PT10M")
+    Duration totalTimeout;
+
+    @ConfigProperty(name = "ai.api.maxConcurrent", defaultValue = "32")
+    int maxConcurrent;
+
+    @ConfigProperty(name = "ai.api.maxConcurrentPerBackend", defaultValue = "16")
+    int maxPerBackend;
+
+    @ConfigProperty(name = "ai.api.executorThreads", defaultValue = "8")
+    int executorThreads;
+
+    @ConfigProperty(name = "ai.api.http2", defaultValue = "true")
+    boolean http2;
+
+    @ConfigProperty(name = "ai.api.healthPath", defaultValue = "health")
+    String healthPath;
+
+    @ConfigProperty(name = "ai.api.healthInterval", defaultValue = "PT10S")
+    Duration healthInterval;
+
+    @ConfigProperty(name = "ai.api.ejectAfterFailures", defaultValue = "3")
+    int ejectAfterFailures;
+
+    @ConfigProperty(name = "ai.api.ejectFor", defaultValue = "PT30S")
+    Duration ejectFor;
+
+    private static final class Backend {
+        final String base;
+        final Semaphore permits;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger failuresInRow = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile long ejectedUntil;
+
+        Backend(String base, int permits) {
+            this.base = base;
+            this.permits = new Semaphore(permits, true);
+        }
+
+        boolean ejected(long now) {
+            return ejectedUntil > now;
+        }
+    }
+
+    private HttpClient client;
+    private ExecutorService executor;
+    private ScheduledExecutorService health;
+    private Semaphore permits;
+    private List<Backend> backends;
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        AtomicInteger n = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(executorThreads, r -> {
+            Thread t = new Thread(r, "ai-api-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        List<Backend> list = new ArrayList<>();
+        for (String url : baseUrls.filter(l -> !l.isEmpty()).orElse(List.of(baseUrl))) {
+            String base = url.trim().endsWith("/") ? url.trim() : url.trim() + "/";
+            list.add(new Backend(base, Math.max(1, maxPerBackend)));
+        }
+        backends = List.copyOf(list);
+        baseUrl = backends.get(0).base;
+
+        boolean h2 = http2 && baseUrl.startsWith("https");
+        client = HttpClient.newBuilder()
+                .version(h2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .executor(executor)
+                .build();
+        permits = new Semaphore(maxConcurrent, true);
+
+        health = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ai-api-health");
+            t.setDaemon(true);
+            return t;
+        });
+        health.scheduleWithFixedDelay(this::checkHealth, healthInterval.toMillis(), healthInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+
+        LOG.infof("ai api client: %s, %s, maxConcurrent=%d (per backend %d), timeouts connect=%s read=%s total=%s",
+                backends.stream().map(b -> b.base).toList(), h2 ? "HTTP/2" : "HTTP/1.1", maxConcurrent,
+                maxPerBackend, connectTimeout, readTimeout, totalTimeout);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        health.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /*
+     * first backend + path (path without leading '/'); send() moves it to whichever backend it picks.
+     */
+    public String url(String path) {
+        return baseUrl + path;
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        HttpRequest template = request.timeout(readTimeout).build();
+        String path = pathOf(template.uri());
+
+        queued.incrementAndGet();
+        try {
+            permits.acquire();
+        } finally {
+            queued.decrementAndGet();
+        }
+        inFlight.incrementAndGet();
+        try {
+            if (path == null)
+                return call(template, handler); // not one of ours, no balancing
+
+            Set<Backend> tried = new HashSet<>();
+            while (true) {
+                Backend b = acquire(tried);
+                HttpRequest req = HttpRequest.newBuilder(template, (name, value) -> true)
+                        .uri(URI.create(b.base + path))
+                        .build();
+                try {
+                    HttpResponse<T> resp = call(req, handler);
+                    if (resp.statusCode() >= 500) {
+                        failure(b);
+                    } else {
+                        b.failuresInRow.set(0);
+                        b.completed.incrementAndGet();
+                    }
+                    return resp;
+                } catch (ConnectException | HttpConnectTimeoutException e) {
+                    // nothing was sent, another backend may take it
+                    failure(b);
+                    tried.add(b);
+                    if (tried.size() >= backends.size())
+                        throw e;
+                    LOG.debugf("ai api: %s unreachable, trying another backend", b.base);
+                } catch (IOException e) {
+                    failure(b);
+                    throw e;
+                } finally {
+                    b.outstanding.decrementAndGet();
+                    b.permits.release();
+                }
+            }
+        } finally {
+            inFlight.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    private static CancellationException cancellation(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof CancellationException c)
+                return c;
+        }
+        return null;
+    }
+
+    public Map<String, Object> metrics() {
+        long done = completed.get() + failed.get();
+        long now = System.currentTimeMillis();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("inFlight", inFlight.get());
+        m.put("queued", queued.get());
+        m.put("maxConcurrent", maxConcurrent);
+        m.put("completed", completed.get());
+        m.put("failed", failed.get());
+        m.put("timedOut", timedOut.get());
+        m.put("avgMillis", done == 0 ? 0 : totalMillis.get() / done);
+        List<Map<String, Object>> bs = new ArrayList<>();
+        for (Backend b : backends) {
+            bs.add(Map.of(
+                    "url", b.base,
+                    "healthy", !b.ejected(now),
+                    "outstanding", b.outstanding.get(),
+                    "completed", b.completed.get(),
+                    "failed", b.failed.get()));
+        }
+        m.put("backends", bs);
+        return m;
+    }
+
+    // ---------- routing ----------
+
+    /*
+     * backend with the fewest outstanding requests among the healthy, untried ones (all untried ones
+     * when none is healthy); takes one of its permits, waiting only when every candidate is full.
+     */
+    private Backend acquire(Set<Backend> tried) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        List<Backend> candidates = new ArrayList<>();
+        for (Backend b : backends) {
+            if (!tried.contains(b) && !b.ejected(now))
+                candidates.add(b);
+        }
+        if (candidates.isEmpty()) {
+            for (Backend b : backends) {
+                if (!tried.contains(b))
+                    candidates.add(b);
+            }
+        }
+        // rotate first so ties do not always go to the first backend
+        Collections.rotate(candidates, Math.floorMod(rotation.getAndIncrement(), candidates.size()));
+        candidates.sort(Comparator.comparingInt(b -> b.outstanding.get()));
+        for (Backend b : candidates) {
+            if (b.permits.tryAcquire()) {
+                b.outstanding.incrementAndGet();
+                return b;
+            }
+        }
+        Backend b = candidates.get(0);
+        b.permits.acquire();
+        b.outstanding.incrementAndGet();
+        return b;
+    }
+
+    private void failure(Backend b) {
+        b.failed.incrementAndGet();
+        if (b.failuresInRow.incrementAndGet() >= ejectAfterFailures && !b.ejected(System.currentTimeMillis())) {
+            b.ejectedUntil = System.currentTimeMillis() + ejectFor.toMillis();
+            LOG.warnf("ai api: %s ejected for %s after %d failures", b.base, ejectFor, b.failuresInRow.get());
+        }
+    }
+
+    private String pathOf(URI uri) {
+        String s = uri.toString();
+        for (Backend b : backends) {
+            if (s.startsWith(b.base))
+                return s.substring(b.base.length());
+        }
+        return null;
+    }
+
+    private void checkHealth() {
+        for (Backend b : backends) {
+            boolean up;
+            try {
+                HttpResponse<Void> resp = client.send(HttpRequest.newBuilder(URI.create(b.base + healthPath))
+                        .timeout(Duration.ofSeconds(2)).GET().build(), HttpResponse.BodyHandlers.discarding());
+                up = resp.statusCode() < 500; // no health route (404) still means the process answers
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                up = false;
+            }
+            boolean wasEjected = b.ejected(System.currentTimeMillis());
+            if (up) {
+                if (wasEjected)
+                    LOG.infof("ai api: %s healthy again", b.base);
+                b.ejectedUntil = 0;
+                b.failuresInRow.set(0);
+            } else {
+                if (!wasEjected)
+                    LOG.warnf("ai api: %s failed its health check, ejected", b.base);
+                b.ejectedUntil = System.currentTimeMillis() + Math.max(ejectFor.toMillis(), healthInterval.toMillis());
+            }
+        }
+    }
+
+    /*
+     * upper bound of one call; callers sharing another caller's call wait no longer than this.
+     */
+    public Duration totalTimeout() {
+        return totalTimeout;
+    }
+
+    // ---------- one exchange ----------
+
+    private <T> HttpResponse<T> call(HttpRequest req, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> call = client.sendAsync(req, handler);
+        try {
+            HttpResponse<T> resp = call.get(totalTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            completed.incrementAndGet();
+            return resp;
+        } catch (TimeoutException e) {
+            call.cancel(true);
+            failed.incrementAndGet();
+            timedOut.incrementAndGet();
+            throw new HttpTimeoutException("ai api call exceeded " + totalTimeout);
+        } catch (ExecutionException e) {
+            CancellationException gone = cancellation(e.getCause());
+            if (gone != null) {
+                call.cancel(true);
+                throw gone; // the body subscriber gave up (client went away), not a backend failure
+            }
+            failed.incrementAndGet();
+            if (e.getCause() instanceof HttpTimeoutException)
+                timedOut.incrementAndGet();
+            if (e.getCause() instanceof IOException io)
+                throw io;
+            throw new IOException("ai api call failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            call.cancel(true);
+            throw e;
+        } finally {
+            totalMillis.addAndGet((System.nanoTime() - started) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.acme.evolv.factory.services;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.panache.common.Sort;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import org.acme.evolv.entity.AiScenarioEntity;
+import org.acme.evolv.entity.AiScenarioOptionEntity;
+import org.acme.evolv.entity.AiScenarioRunEntity;
+import org.acme.evolv.utils.HashUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Cache of PDF analysis results, so a re-upload of the same document(s) to the same scenario
+ * does not go to the LLM again.
+ * - key = sha-256(kind, scenario, prompt template, question, model, sha-256 of each file)
+ * - tier 1: in-memory LRU (analysis.cache.maxEntries), holds the exact response
+ * - tier 2: ai_scenario_run rows with cache_key set (when the scenario saves history);
+ *   the response is rebuilt from the row by the caller
+ * - entries expire after analysis.cache.ttl; invalidateScenario() drops both tiers for a scenario
+ *   (prompt/scenario edits; the prompt is part of the key anyway)
+ */
+@ApplicationScoped
+public class AnalysisCache {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisCache.class);
+
+    @ConfigProperty(name = "analysis.cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "analysis.cache.ttl", defaultValue = "P7D")
+    Duration ttl;
+
+    @ConfigProperty(name = "analysis.cache.maxEntries", defaultValue = "1000")
+    int maxEntries;
+
+    private record Entry(UUID scenarioId, Map<String, Object> response, long expiresAt) {
+    }
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public String key(String kind, UUID scenarioId, String prompt, String question, String model, List<Path> files)
+            throws Exception {
+        StringBuilder sb = new StringBuilder()
+                .append(kind).append('\n')
+                .append(scenarioId).append('\n')
+                .append(nz(prompt).length()).append(':').append(nz(prompt)).append('\n')
+                .append(nz(question).length()).append(':').append(nz(question)).append('\n')
+                .append(nz(model)).append('\n');
+        for (Path f : files) {
+            sb.append(HashUtils.hashFile(f, "SHA-256")).append('\n');
+        }
+        return HashUtils.hashString(sb.toString(), "SHA-256");
+    }
+
+    /*
+     * cached response for key, or null. fromRun rebuilds the response from a stored run (tier 2).
+     */
+    public Map<String, Object> get(String key, Function<AiScenarioRunEntity, Map<String, Object>> fromRun) {
+        if (!enabled)
+            return null;
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            Entry e = memory.get(key);
+            if (e != null) {
+                if (e.expiresAt() > now)
+                    return e.response();
+                memory.remove(key);
+            }
+        }
+
+        AiScenarioRunEntity run = AiScenarioRunEntity.<AiScenarioRunEntity>find(
+                "cacheKey = ?1 and status = 'done' and createdAt > ?2",
+                Sort.by("createdAt").descending(), key, OffsetDateTime.now().minus(ttl)).firstResult();
+        if (run == null)
+            return null;
+        Map<String, Object> response = fromRun.apply(run);
+        long expiresAt = run.createdAt.plus(ttl).toInstant().toEpochMilli();
+        synchronized (memory) {
+            memory.put(key, new Entry(run.scenario.id, response, expiresAt));
+        }
+        LOG.debugf("analysis cache: db hit %s", key);
+        return response;
+    }
+
+    /*
+     * remember response; also stored as an ai_scenario_run row when the scenario keeps history.
+     */
+    public void put(String key, AiScenarioEntity scenario, String fileName, String model, String markdown,
+            String promptUsed, Map<String, Object> response) {
+        if (!enabled)
+            return;
+        synchronized (memory) {
+            memory.put(key, new Entry(scenario.id, response, System.currentTimeMillis() + ttl.toMillis()));
+        }
+        try {
+            QuarkusTransaction.requiringNew().run(() -> {
+                AiScenarioOptionEntity opt = AiScenarioOptionEntity.findById(scenario.id);
+                if (opt != null && !opt.saveHistory)
+                    return;
+                AiScenarioRunEntity run = new AiScenarioRunEntity();
+                run.id = UUID.randomUUID();
+                run.scenario = AiScenarioEntity.findById(scenario.id);
+                run.companyId = scenario.companyId;
+                run.userId = ""; // uploads are not tied to a user yet
+                run.fileName = fileName;
+                run.modelUsed = nz(model);
+                run.resultMarkdown = markdown;
+                run.promptUsed = promptUsed;
+                run.status = "done";
+                run.cacheKey = key;
+                run.createdAt = OffsetDateTime.now();
+                run.persist();
+            });
+        } catch (RuntimeException e) {
+            // the memory tier still has it; a failed insert must not fail the analysis
+            LOG.warnf("analysis cache: cannot store run for %s: %s", scenario.id, e.getMessage());
+        }
+    }
+
+    public void invalidateScenario(UUID scenarioId) {
+        int dropped;
+        synchronized (memory) {
+            int before = memory.size();
+            memory.values().removeIf(e -> scenarioId.equals(e.scenarioId()));
+            dropped = before - memory.size();
+        }
+        // runs stay as history, they just stop being cache entries
+        int rows = AiScenarioRunEntity.update("cacheKey = null where scenario.id = ?1 and cacheKey is not null",
+                scenarioId);
+        LOG.debugf("analysis cache: scenario %s invalidated (%d in memory, %d rows)", scenarioId, dropped, rows);
+    }
+
+    private static String nz(String s) {
+        return s == null ? "" : s;
+    }
+}
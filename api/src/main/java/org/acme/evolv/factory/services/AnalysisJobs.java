@@ -0,0 +1,248 @@
+package org.acme.evolv.factory.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.StartupEvent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.dto.AnalysisJobDTO;
+import org.acme.evolv.entity.AiScenarioRunEntity;
+import org.acme.evolv.factory.repository.AnalysisRunRepository;
+import org.acme.evolv.utils.FileUtils;
+import org.acme.evolv.utils.LogSseHub;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous analyses: the request only records an ai_scenario_run row (status queued) and returns.
+ * - a fixed worker pool (analysis.jobs.workers) makes the upstream call, outside any transaction;
+ *   status changes are short transactions in AnalysisRunRepository
+ * - uploads are copied to a spool dir first, the request's temp files are gone once it returns
+ * - status: poll the run, or follow streamId (JSON events, then [DONE]) through LogSseHub
+ * - the queue is bounded (analysis.jobs.maxQueue), and so is each company's share of it: at most
+ *   analysis.jobs.maxPerCompany queued + running jobs, so one tenant cannot fill every worker and queue slot
+ */
+@ApplicationScoped
+public class AnalysisJobs {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisJobs.class);
+
+    @Inject
+    AnalysisRunRepository runs;
+
+    @Inject
+    LogSseHub hub;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "analysis.jobs.workers", defaultValue = "8")
+    int workerCount;
+
+    @ConfigProperty(name = "analysis.jobs.maxQueue", defaultValue = "200")
+    int maxQueue;
+
+    @ConfigProperty(name = "analysis.jobs.maxPerCompany", defaultValue = "4")
+    int maxPerCompany;
+
+    /** An uploaded file, by the path the worker reads it from. */
+    public record Upload(String fileName, String contentType, Path path) {
+    }
+
+    /** What a finished analysis stores on its run; cacheKey makes the run an AnalysisCache entry. */
+    public record Outcome(String model, String markdown, String promptUsed, String cacheKey) {
+    }
+
+    @FunctionalInterface
+    public interface Work {
+        Outcome run() throws Exception;
+    }
+
+    private ThreadPoolExecutor workers;
+    // company -> its queued + running jobs
+    private final Map<String, Integer> perCompany = new HashMap<>();
+    private final Path spoolDir = Path.of(System.getProperty("java.io.tmpdir"), "evolv-analysis-jobs");
+
+    @PostConstruct
+    void init() {
+        AtomicInteger n = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueue)), r -> {
+                    Thread t = new Thread(r, "analysis-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        int n = runs.failUnfinished("interrupted by a server restart");
+        if (n > 0)
+            LOG.infof("[AnalysisJobs] %d unfinished run(s) from the last process marked failed", n);
+        try {
+            if (Files.exists(spoolDir))
+                FileUtils.deleteTree(spoolDir);
+        } catch (IOException e) {
+            LOG.warnf("[AnalysisJobs] cannot clear %s: %s", spoolDir, e.getMessage());
+        }
+    }
+
+    /*
+     * copy request uploads where the worker can still read them after the request has ended.
+     */
+    public List<Upload> spool(List<FileUpload> files) throws IOException {
+        Path dir = spoolDir.resolve(UUID.randomUUID().toString());
+        Files.createDirectories(dir);
+        List<Upload> out = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            FileUpload fu = files.get(i);
+            Path copy = dir.resolve(i + ".pdf");
+            Files.copy(fu.filePath(), copy, StandardCopyOption.REPLACE_EXISTING);
+            out.add(new Upload(fu.fileName(), fu.contentType(), copy));
+        }
+        return out;
+    }
+
+    /*
+     * record a queued run and hand work to the pool. spooled files (may be empty) are deleted when it ends.
+     * Throws RejectedExecutionException when the queue, or the company's share of it, is full.
+     */
+    public AnalysisJobDTO submit(UUID scenarioId, Object companyId, String fileName, String model, String streamId,
+            List<Upload> spooled, Work work) {
+        String company = companyId == null ? "" : companyId.toString();
+        if (workers.getQueue().remainingCapacity() == 0) {
+            cleanup(spooled);
+            throw new RejectedExecutionException("analysis queue full (" + maxQueue + ")");
+        }
+        if (!admit(company)) {
+            cleanup(spooled);
+            throw new RejectedExecutionException(
+                    "too many queued analyses for company " + company + " (" + maxPerCompany + ")");
+        }
+        AiScenarioRunEntity run;
+        try {
+            run = runs.createQueued(scenarioId, "", fileName, model);
+        } catch (RuntimeException e) {
+            leave(company);
+            cleanup(spooled);
+            throw e;
+        }
+        UUID runId = run.id;
+        try {
+            workers.execute(() -> {
+                try {
+                    execute(runId, streamId, spooled, work);
+                } finally {
+                    leave(company);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            leave(company);
+            runs.fail(runId, e.getMessage());
+            cleanup(spooled);
+            throw e;
+        }
+        LOG.infof("[AnalysisJobs] queued run=%s scenario=%s file=%s", runId, scenarioId, fileName);
+        event(streamId, "status", Map.of("runId", runId.toString(), "status", AnalysisRunRepository.QUEUED));
+        return view(run);
+    }
+
+    public AnalysisJobDTO view(AiScenarioRunEntity run) {
+        return new AnalysisJobDTO(run.id, run.status, run.fileName, run.modelUsed, run.resultMarkdown,
+                run.promptUsed, run.errorMessage, run.createdAt);
+    }
+
+    public Map<String, Object> stats() {
+        synchronized (perCompany) {
+            return Map.of(
+                    "workers", workerCount,
+                    "running", workers.getActiveCount(),
+                    "queued", workers.getQueue().size(),
+                    "maxQueue", maxQueue,
+                    "maxPerCompany", maxPerCompany,
+                    "companies", new TreeMap<>(perCompany));
+        }
+    }
+
+    private boolean admit(String company) {
+        synchronized (perCompany) {
+            int n = perCompany.getOrDefault(company, 0);
+            if (n >= maxPerCompany)
+                return false;
+            perCompany.put(company, n + 1);
+            return true;
+        }
+    }
+
+    private void leave(String company) {
+        synchronized (perCompany) {
+            perCompany.computeIfPresent(company, (k, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    private void execute(UUID runId, String streamId, List<Upload> spooled, Work work) {
+        try {
+            runs.markRunning(runId);
+            event(streamId, "status", Map.of("runId", runId.toString(), "status", AnalysisRunRepository.RUNNING));
+            Outcome o = work.run();
+            runs.complete(runId, o.model(), o.markdown(), o.promptUsed(), o.cacheKey());
+        } catch (Throwable e) {
+            LOG.warnf("[AnalysisJobs] run=%s failed: %s", runId, e.getMessage());
+            try {
+                runs.fail(runId, e.getMessage() == null ? e.toString() : e.getMessage());
+            } catch (RuntimeException ex) {
+                LOG.errorf("[AnalysisJobs] cannot mark run=%s failed: %s", runId, ex.getMessage());
+            }
+        } finally {
+            cleanup(spooled);
+            if (streamId != null && !streamId.isBlank()) {
+                AiScenarioRunEntity run = runs.get(runId);
+                if (run != null) {
+                    event(streamId, "done", Map.of("run", view(run)));
+                }
+                hub.send(streamId, "[DONE]");
+                hub.close(streamId);
+            }
+        }
+    }
+
+    private void cleanup(List<Upload> spooled) {
+        if (spooled == null || spooled.isEmpty())
+            return;
+        try {
+            FileUtils.deleteTree(spooled.get(0).path().getParent());
+        } catch (IOException e) {
+            LOG.debugf("[AnalysisJobs] cannot delete spooled files: %s", e.getMessage());
+        }
+    }
+
+    private void event(String streamId, String type, Map<String, Object> data) {
+        if (streamId == null || streamId.isBlank())
+            return;
+        try {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("event", type);
+            e.putAll(data);
+            hub.send(streamId, mapper.writeValueAsString(e));
+        } catch (Exception ex) {
+            LOG.debugf("[AnalysisJobs] cannot send %s event: %s", type, ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.acme.evolv.factory.services;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import org.acme.evolv.utils.TokenBucket;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control in front of the upstream analysis calls, so one tenant cannot starve the others.
+ * - rate: token bucket per company (analysis.limits.companyPerMinute, burst companyBurst)
+ * - bulkheads: concurrent calls per company and per model, each with a bounded wait queue;
+ *   a caller waits at most queueWait (short: this is a request thread) for a slot
+ * - model names come from the client: the first maxModels get their own bulkhead, any others share "other"
+ * - a call that fans out (chunked PDFs) holds one slot per parallel upstream call, see acquireUpTo
+ * - anything over a limit fails fast with LimitExceeded (429 + Retry-After, see filter/LimitExceededMapper)
+ */
+@ApplicationScoped
+public class AnalysisLimiter {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisLimiter.class);
+
+    @ConfigProperty(name = "analysis.limits.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "analysis.limits.companyConcurrent", defaultValue = "4")
+    int companyConcurrent;
+
+    @ConfigProperty(name = "analysis.limits.companyQueue", defaultValue = "8")
+    int companyQueue;
+
+    @ConfigProperty(name = "analysis.limits.modelConcurrent", defaultValue = "16")
+    int modelConcurrent;
+
+    @ConfigProperty(name = "analysis.limits.modelQueue", defaultValue = "32")
+    int modelQueue;
+
+    @ConfigProperty(name = "analysis.limits.queueWait", defaultValue = "PT0.5S")
+    Duration queueWait;
+
+    @ConfigProperty(name = "analysis.limits.maxModels", defaultValue = "16")
+    int maxModels;
+
+    @ConfigProperty(name = "analysis.limits.companyPerMinute", defaultValue = "60")
+    double companyPerMinute;
+
+    @ConfigProperty(name = "analysis.limits.companyBurst", defaultValue = "10")
+    int companyBurst;
+
+    // Retry-After for bulkhead rejections (rate rejections know their own wait)
+    @ConfigProperty(name = "analysis.limits.retryAfter", defaultValue = "PT5S")
+    Duration retryAfter;
+
+    /** Over a limit; the caller should retry after retryAfterSeconds. */
+    public static class LimitExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterSeconds;
+
+        public LimitExceeded(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public long retryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /** Slots held for one call; close() gives them back. slots(): upstream calls the holder may run at once. */
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+
+        default int slots() {
+            return 1;
+        }
+    }
+
+    private static final class Bulkhead {
+        final Semaphore slots;
+        final int limit;
+        final int maxQueue;
+        final AtomicInteger waiting = new AtomicInteger();
+        final AtomicLong rejected = new AtomicLong();
+
+        Bulkhead(int limit, int maxQueue) {
+            this.limit = Math.max(1, limit);
+            this.slots = new Semaphore(this.limit, true);
+            this.maxQueue = maxQueue;
+        }
+
+        boolean enter(Duration wait) throws InterruptedException {
+            if (slots.tryAcquire())
+                return true;
+            if (waiting.incrementAndGet() > maxQueue) {
+                waiting.decrementAndGet();
+                rejected.incrementAndGet();
+                return false;
+            }
+            try {
+                if (slots.tryAcquire(wait.toMillis(), TimeUnit.MILLISECONDS))
+                    return true;
+                rejected.incrementAndGet();
+                return false;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        Map<String, Object> view() {
+            return Map.of(
+                    "active", limit - slots.availablePermits(),
+                    "limit", limit,
+                    "queued", waiting.get(),
+                    "rejected", rejected.get());
+        }
+    }
+
+    private final Map<String, Bulkhead> companies = new ConcurrentHashMap<>();
+    private final Map<String, Bulkhead> models = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> rates = new ConcurrentHashMap<>();
+    private final AtomicLong rateRejected = new AtomicLong();
+
+    /*
+     * rate check + a slot in the company's and the model's bulkhead; blocks up to queueWait.
+     */
+    public Permit acquire(Object companyId, String model) throws InterruptedException {
+        if (!enabled)
+            return () -> { };
+        checkRate(companyId);
+        return enter(keyOf(companyId), model, 1, queueWait);
+    }
+
+    /*
+     * slots for up to `wanted` parallel calls: waits up to `wait` (null = queueWait) for the first like acquire(),
+     * then takes whatever more the company and model bulkheads have free, without waiting.
+     * No rate token: callers check the rate when they admit the request.
+     */
+    public Permit acquireUpTo(Object companyId, String model, int wanted, Duration wait) throws InterruptedException {
+        if (!enabled) {
+            int all = Math.max(1, wanted);
+            return new Permit() {
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public int slots() {
+                    return all;
+                }
+            };
+        }
+        return enter(keyOf(companyId), model, wanted, wait == null ? queueWait : wait);
+    }
+
+    private Permit enter(String company, String model, int wanted, Duration wait) throws InterruptedException {
+        Bulkhead c = companies.computeIfAbsent(company, k -> new Bulkhead(companyConcurrent, companyQueue));
+        if (!c.enter(wait))
+            throw reject("too many analyses running for company " + company);
+        String modelKey = modelKey(model);
+        Bulkhead m = models.computeIfAbsent(modelKey, k -> new Bulkhead(modelConcurrent, modelQueue));
+        boolean inModel = false;
+        try {
+            inModel = m.enter(wait);
+        } finally {
+            if (!inModel)
+                c.slots.release();
+        }
+        if (!inModel)
+            throw reject("too many analyses running for model " + modelKey);
+        int extra = 0;
+        while (extra < wanted - 1 && c.slots.tryAcquire()) {
+            if (!m.slots.tryAcquire()) {
+                c.slots.release();
+                break;
+            }
+            extra++;
+        }
+        int held = 1 + extra;
+        return new Permit() {
+            @Override
+            public void close() {
+                m.slots.release(held);
+                c.slots.release(held);
+            }
+
+            @Override
+            public int slots() {
+                return held;
+            }
+        };
+    }
+
+    /*
+     * rate limit only, for submissions that are queued elsewhere (AnalysisJobs).
+     */
+    public void checkRate(Object companyId) {
+        if (!enabled)
+            return;
+        String company = keyOf(companyId);
+        long waitMillis = rates.computeIfAbsent(company, k -> new TokenBucket(companyPerMinute, companyBurst))
+                .tryTake();
+        if (waitMillis > 0) {
+            rateRejected.incrementAndGet();
+            LOG.debugf("analysis rate limit hit for company %s", company);
+            throw new LimitExceeded("analysis rate limit reached for company " + company,
+                    Math.max(1, (waitMillis + 999) / 1000));
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> byCompany = new TreeMap<>();
+        companies.forEach((k, v) -> byCompany.put(k, v.view()));
+        Map<String, Object> byModel = new TreeMap<>();
+        models.forEach((k, v) -> byModel.put(k, v.view()));
+        return Map.of(
+                "enabled", enabled,
+                "companies", byCompany,
+                "models", byModel,
+                "rateRejected", rateRejected.get());
+    }
+
+    private LimitExceeded reject(String message) {
+        LOG.debugf("analysis bulkhead: %s", message);
+        return new LimitExceeded(message, Math.max(1, retryAfter.toSeconds()));
+    }
+
+    /*
+     * bulkhead key for a client-supplied model name; bounded, so the map cannot grow without limit.
+     */
+    private String modelKey(String model) {
+        if (model == null || model.isBlank())
+            return "default";
+        if (models.containsKey(model) || models.size() < maxModels)
+            return model;
+        return "other";
+    }
+
+    private static String keyOf(Object companyId) {
+        return companyId == null ? "" : companyId.toString();
+    }
+}
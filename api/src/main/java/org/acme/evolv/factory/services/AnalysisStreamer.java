@@ -0,0 +1,285 @@
+package org.acme.evolv.factory.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+
+import org.acme.evolv.entity.AiScenarioRunEntity;
+import org.acme.evolv.factory.repository.AnalysisRunRepository;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The /stream variants of the analyze endpoints: upstream output is relayed to the browser as it is generated.
+ * - upstream answers text/event-stream (or NDJSON) lines: {"delta": "..."} pieces, optionally a last line
+ *   with model / prompt_used; plain-text lines are relayed as they are
+ * - to the client: SSE events start {runId}, delta {text}, done {runId, model} or error {error}
+ * - a cached answer is replayed first (replay), with no new run, limiter permit or upstream call
+ * - the run is recorded when the stream starts (running) and completed with the full text at the end;
+ *   a client that goes away cancels the upstream call at once (next upstream line, or the watchdog's
+ *   next look at the sink), releasing the worker thread and the limiter / backend permits
+ */
+@ApplicationScoped
+public class AnalysisStreamer {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisStreamer.class);
+
+    @Inject
+    AiApiClient ai;
+
+    @Inject
+    AnalysisRunRepository runs;
+
+    @Inject
+    AnalysisCache cache;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "ai.api.streamPath", defaultValue = "pdf/analyze/stream")
+    String streamPath;
+
+    @ConfigProperty(name = "ai.api.multiStreamPath", defaultValue = "pdf/analyze-multi/stream")
+    String multiStreamPath;
+
+    public String url(boolean multi) {
+        return ai.url(multi ? multiStreamPath : streamPath);
+    }
+
+    /*
+     * the cached answer for cacheKey as start / delta / done, then close sink; false (nothing sent) on a miss.
+     * start / done carry the cached run's id when the answer came from a stored run.
+     */
+    public boolean replay(SseEventSink sink, Sse sse, String cacheKey) {
+        Map<String, Object> cached = cache.get(cacheKey, r -> Map.of(
+                "markdown", r.resultMarkdown == null ? "" : r.resultMarkdown,
+                "model", r.modelUsed,
+                "runId", r.id.toString()));
+        if (cached == null)
+            return false;
+        Object runId = cached.get("runId");
+        Object model = cached.get("model");
+        Map<String, Object> start = new LinkedHashMap<>();
+        if (runId != null)
+            start.put("runId", runId);
+        start.put("cached", true);
+        send(sink, sse, "start", start);
+        send(sink, sse, "delta", Map.of("text", String.valueOf(cached.get("markdown"))));
+        Map<String, Object> done = new LinkedHashMap<>(start);
+        done.put("model", model == null ? "" : model);
+        send(sink, sse, "done", done);
+        sink.close();
+        return true;
+    }
+
+    /*
+     * run one streamed analysis into sink; returns when the stream has ended (blocking, worker thread).
+     * Callers try replay() first, before taking limiter permits.
+     */
+    public void stream(SseEventSink sink, Sse sse, UUID scenarioId, String fileName, String model, String prompt,
+            String cacheKey, HttpRequest.Builder upstream) {
+        AiScenarioRunEntity run = runs.createQueued(scenarioId, "", fileName, model);
+        UUID runId = run.id;
+        runs.markRunning(runId);
+        send(sink, sse, "start", Map.of("runId", runId.toString()));
+
+        StringBuilder text = new StringBuilder();
+        AtomicReference<String> usedModel = new AtomicReference<>(model);
+        AtomicReference<String> usedPrompt = new AtomicReference<>(prompt);
+        try {
+            AtomicReference<String> errorBody = new AtomicReference<>();
+            Relay relay = new Relay(sink, line -> {
+                String delta = parse(line, usedModel, usedPrompt);
+                if (delta != null && !delta.isEmpty()) {
+                    text.append(delta);
+                    send(sink, sse, "delta", Map.of("text", delta));
+                }
+            });
+            HttpResponse.BodyHandler<Void> handler = info -> info.statusCode() == 200
+                    ? relay.subscriber()
+                    : HttpResponse.BodySubscribers.mapping(
+                            HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                                errorBody.set(body);
+                                return null;
+                            });
+
+            HttpResponse<Void> resp;
+            Thread watchdog = Thread.ofVirtual().name("stream-watch-" + runId).start(relay::watch);
+            try {
+                resp = ai.send(upstream, handler);
+            } finally {
+                watchdog.interrupt();
+            }
+            if (resp.statusCode() != 200) {
+                throw new RuntimeException(
+                        "Python API call failture: " + resp.statusCode() + " → " + errorBody.get());
+            }
+            if (sink.isClosed())
+                throw new IllegalStateException("client disconnected");
+
+            String markdown = text.toString();
+            runs.complete(runId, usedModel.get(), markdown, usedPrompt.get(), cacheKey);
+            send(sink, sse, "done", Map.of("runId", runId.toString(),
+                    "model", usedModel.get() == null ? "" : usedModel.get()));
+        } catch (Exception e) {
+            LOG.warnf("analysis stream run=%s failed: %s", runId, e.getMessage());
+            runs.fail(runId, e.getMessage() == null ? e.toString() : e.getMessage());
+            send(sink, sse, "error", Map.of("error", e.getMessage() == null ? e.toString() : e.getMessage()));
+        } finally {
+            sink.close();
+        }
+    }
+
+    /*
+     * the text piece carried by one upstream line (null if none); model / prompt_used are picked up on the way.
+     */
+    private String parse(String line, AtomicReference<String> model, AtomicReference<String> prompt) {
+        if (line.isEmpty() || line.startsWith(":") || line.startsWith("event:") || line.startsWith("id:")
+                || line.startsWith("retry:"))
+            return null;
+        String data = line;
+        if (line.startsWith("data:")) {
+            data = line.substring(5);
+            if (data.startsWith(" "))
+                data = data.substring(1);
+        }
+        if (data.equals("[DONE]"))
+            return null;
+        if (!data.startsWith("{"))
+            return data + "\n";
+        try {
+            JsonNode n = mapper.readTree(data);
+            if (n.hasNonNull("model"))
+                model.set(n.get("model").asText());
+            if (n.hasNonNull("prompt_used"))
+                prompt.set(n.get("prompt_used").asText());
+            if (n.hasNonNull("delta"))
+                return n.get("delta").asText();
+            return null;
+        } catch (Exception e) {
+            return data + "\n";
+        }
+    }
+
+    private void send(SseEventSink sink, Sse sse, String name, Map<String, Object> data) {
+        if (sink.isClosed())
+            return;
+        try {
+            sink.send(sse.newEventBuilder().name(name).data(mapper.writeValueAsString(data)).build());
+        } catch (Exception e) {
+            LOG.debugf("analysis stream: cannot send %s: %s", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Hands each upstream line to onLine. Once the client is gone it cancels the upstream subscription and
+     * fails the body at once (CancellationException), so ai.send returns instead of waiting out totalTimeout.
+     */
+    private static final class Relay implements Flow.Subscriber<String> {
+        private final SseEventSink sink;
+        private final java.util.function.Consumer<String> onLine;
+        private final CompletableFuture<Void> gone = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+
+        Relay(SseEventSink sink, java.util.function.Consumer<String> onLine) {
+            this.sink = sink;
+            this.onLine = onLine;
+        }
+
+        /* line subscriber whose body completes on the upstream's end or on the client's, whichever first */
+        HttpResponse.BodySubscriber<Void> subscriber() {
+            HttpResponse.BodySubscriber<Void> lines = HttpResponse.BodySubscribers.fromLineSubscriber(this);
+            return new HttpResponse.BodySubscriber<>() {
+                @Override
+                public CompletionStage<Void> getBody() {
+                    return lines.getBody().toCompletableFuture().applyToEither(gone, v -> v);
+                }
+
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    lines.onSubscribe(s);
+                }
+
+                @Override
+                public void onNext(List<ByteBuffer> item) {
+                    lines.onNext(item);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    lines.onError(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    lines.onComplete();
+                }
+            };
+        }
+
+        /* the upstream may be silent for a while (model thinking): look at the sink once a second */
+        void watch() {
+            try {
+                while (!gone.isDone()) {
+                    if (sink.isClosed()) {
+                        cancel();
+                        return;
+                    }
+                    Thread.sleep(1000);
+                }
+            } catch (InterruptedException e) {
+                /* the call ended */
+            }
+        }
+
+        private void cancel() {
+            Flow.Subscription s = subscription;
+            if (s != null)
+                s.cancel();
+            gone.completeExceptionally(new CancellationException("client disconnected"));
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (sink.isClosed()) {
+                cancel();
+                return;
+            }
+            onLine.accept(line);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            /* surfaces through the response future */
+        }
+
+        @Override
+        public void onComplete() {
+            /* nothing to do */
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.acme.evolv.factory.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.utils.LogSseHub;
+import org.acme.evolv.utils.MultipartBodyPublisher;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * analyze-multi?mode=fanout: one upstream call per PDF instead of one call for all of them.
+ * - files run in parallel, at most analysis.fanout.concurrency per request (AiApiClient still caps the total)
+ * - each finished file is pushed to the streamId as a JSON event, so the client sees results as they come
+ * - a merge call (analysis.fanout.mergePath) combines the per-file answers; without one, or when it fails,
+ *   the per-file answers are joined locally
+ * - a failed file is reported and left out of the merge; the request fails only if every file failed
+ */
+@ApplicationScoped
+public class AnalyzeFanOut {
+
+    private static final Logger LOG = Logger.getLogger(AnalyzeFanOut.class);
+
+    @Inject
+    AiApiClient ai;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @Inject
+    LogSseHub hub;
+
+    @ConfigProperty(name = "analysis.fanout.concurrency", defaultValue = "4")
+    int concurrency;
+
+    // single-file endpoint (same one PdfResource calls)
+    @ConfigProperty(name = "analysis.fanout.filePath", defaultValue = "pdf/analyze")
+    String filePath;
+
+    // JSON {question, custom_prompt, model, results: [{file_name, markdown}]} -> {answer_markdown}; empty = local merge
+    @ConfigProperty(name = "analysis.fanout.mergePath")
+    Optional<String> mergePath;
+
+    /** One file's answer; markdown is null when it failed. */
+    public record Part(String file, String markdown, String model, String error) {
+    }
+
+    /*
+     * analyze files one call each, then merge. Result has the analyze-multi shape plus "parts".
+     */
+    public Map<String, Object> run(List<AnalysisJobs.Upload> files, String customPrompt, String question, String model,
+            String streamId) throws Exception {
+        return run(files, customPrompt, question, model, streamId, concurrency, mergePath);
+    }
+
+    /*
+     * same, with the caller's parallelism and merge endpoint (ChunkedAnalysis: chunks of one PDF).
+     */
+    public Map<String, Object> run(List<AnalysisJobs.Upload> files, String customPrompt, String question, String model,
+            String streamId, int parallelism, Optional<String> mergeWith) throws Exception {
+        Part[] parts = new Part[files.size()];
+        Semaphore slots = new Semaphore(Math.max(1, parallelism));
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < files.size(); i++) {
+                int idx = i;
+                AnalysisJobs.Upload fu = files.get(i);
+                exec.submit(() -> {
+                    slots.acquire();
+                    try {
+                        parts[idx] = analyzeOne(fu, customPrompt, question, model);
+                    } catch (Exception e) {
+                        LOG.warnf("fan-out: %s failed: %s", fu.fileName(), e.getMessage());
+                        parts[idx] = new Part(fu.fileName(), null, null, e.getMessage());
+                    } finally {
+                        slots.release();
+                    }
+                    event(streamId, "file", Map.of(
+                            "index", idx,
+                            "file", parts[idx].file(),
+                            "markdown", parts[idx].markdown() == null ? "" : parts[idx].markdown(),
+                            "error", parts[idx].error() == null ? "" : parts[idx].error()));
+                    return null;
+                });
+            }
+        } // close() waits for every file
+
+        List<Part> ok = Arrays.stream(parts).filter(p -> p.markdown() != null).toList();
+        if (ok.isEmpty())
+            throw new RuntimeException("Python API call failture: every file failed, first: " + parts[0].error());
+
+        String note = ok.size() < parts.length ? (parts.length - ok.size()) + " file(s) failed" : "";
+        String markdown;
+        String usedModel = ok.get(0).model();
+        if (ok.size() == 1) {
+            markdown = ok.get(0).markdown();
+        } else if (mergeWith.isEmpty()) {
+            markdown = joinLocally(ok);
+        } else {
+            try {
+                JsonNode merged = merge(mergeWith.get(), ok, customPrompt, question, model);
+                markdown = merged.path("answer_markdown").asText("");
+                if (markdown.isEmpty())
+                    markdown = merged.path("result_markdown").asText("");
+                usedModel = merged.path("model").asText(usedModel);
+            } catch (Exception e) {
+                LOG.warnf("fan-out: merge failed, joining locally: %s", e.getMessage());
+                markdown = joinLocally(ok);
+                note = (note.isEmpty() ? "" : note + "; ") + "merge failed";
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Map<String, Object>> partViews = new ArrayList<>();
+        for (Part p : parts) {
+            names.add(p.file());
+            partViews.add(Map.of(
+                    "file", p.file(),
+                    "markdown", p.markdown() == null ? "" : p.markdown(),
+                    "error", p.error() == null ? "" : p.error()));
+        }
+        return Map.of(
+                "files", names,
+                "markdown", markdown,
+                "model", usedModel == null ? "" : usedModel,
+                "note", note,
+                "parts", partViews);
+    }
+
+    /*
+     * final event with the whole result, then [DONE]; also used for cached / shared results.
+     */
+    public void done(String streamId, Map<String, Object> result) {
+        if (streamId == null || streamId.isBlank())
+            return;
+        event(streamId, "done", result);
+        hub.send(streamId, "[DONE]");
+        hub.close(streamId);
+    }
+
+    public void failed(String streamId, String message) {
+        if (streamId == null || streamId.isBlank())
+            return;
+        event(streamId, "error", Map.of("error", message == null ? "" : message));
+        hub.send(streamId, "[DONE]");
+        hub.close(streamId);
+    }
+
+    private Part analyzeOne(AnalysisJobs.Upload fu, String customPrompt, String question, String model)
+            throws Exception {
+        var body = new MultipartBodyPublisher();
+        if (customPrompt != null && !customPrompt.isEmpty())
+            body.field("custom_prompt", customPrompt);
+        if (question != null && !question.isEmpty())
+            body.field("question", question);
+        if (model != null && !model.isEmpty())
+            body.field("model", model);
+        body.file("file", fu.fileName(), fu.contentType() != null ? fu.contentType() : "application/pdf",
+                fu.path());
+
+        HttpResponse<String> resp = ai.send(body.post(ai.url(filePath)), HttpResponse.BodyHandlers.ofString());
+        if (resp.statusCode() != 200)
+            throw new RuntimeException("Python API call failture: " + resp.statusCode() + " → " + resp.body());
+
+        JsonNode root = mapper.readTree(resp.body());
+        return new Part(fu.fileName(), root.path("result_markdown").asText(""), root.path("model").asText(""), null);
+    }
+
+    private JsonNode merge(String path, List<Part> ok, String customPrompt, String question, String model)
+            throws Exception {
+        var payload = mapper.createObjectNode();
+        payload.put("question", question == null ? "" : question);
+        payload.put("custom_prompt", customPrompt == null ? "" : customPrompt);
+        if (model != null && !model.isBlank())
+            payload.put("model", model);
+        var results = payload.putArray("results");
+        for (Part p : ok) {
+            results.addObject().put("file_name", p.file()).put("markdown", p.markdown());
+        }
+
+        var req = HttpRequest.newBuilder(java.net.URI.create(ai.url(path)))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload.toString()));
+        HttpResponse<String> resp = ai.send(req, HttpResponse.BodyHandlers.ofString());
+        if (resp.statusCode() != 200)
+            throw new RuntimeException("merge returned " + resp.statusCode());
+        return mapper.readTree(resp.body());
+    }
+
+    private static String joinLocally(List<Part> ok) {
+        StringBuilder sb = new StringBuilder();
+        for (Part p : ok) {
+            if (sb.length() > 0)
+                sb.append("\n\n");
+            sb.append("## ").append(p.file()).append("\n\n").append(p.markdown());
+        }
+        return sb.toString();
+    }
+
+    private void event(String streamId, String type, Map<String, Object> data) {
+        if (streamId == null || streamId.isBlank())
+            return;
+        try {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("event", type);
+            e.putAll(data);
+            hub.send(streamId, mapper.writeValueAsString(e));
+        } catch (Exception ex) {
+            LOG.debugf("fan-out: cannot send %s event: %s", type, ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.acme.evolv.factory.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.utils.FileUtils;
+import org.acme.evolv.utils.HashUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Content-addressed cache of template builds.
+ * - key = sha-256(template tree + resolved ChatConfig/ThemeCfg + docker recipe)
+ * - value = the built dist/ folder, stored under {cacheDir}/{key}/dist
+ * - the docker image built from it is tagged {registryPrefix}{app}:{imageTag(key)}
+ * A hit lets createFromTemplate skip copy/patch/npm/docker build and go straight to deploy.
+ */
+@ApplicationScoped
+public class BuildCacheService {
+
+    private static final Logger LOG = Logger.getLogger(BuildCacheService.class);
+
+    // bump when the layout of a cache entry or the build steps change
+    private static final String FORMAT = "v1";
+    private static final String COMPLETE_MARKER = ".complete";
+
+    @Inject
+    VueProjectService vue;
+
+    @ConfigProperty(name = "factory.workspace", defaultValue = "C:\\\\vue-factory")
+    String workspace;
+
+    @ConfigProperty(name = "factory.cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "factory.cache.dir")
+    Optional<String> cacheDirCfg;
+
+    @ConfigProperty(name = "factory.cache.maxEntries", defaultValue = "200")
+    int maxEntries;
+
+    private Path cacheDir;
+
+    @PostConstruct
+    void init() {
+        cacheDir = cacheDirCfg.filter(d -> !d.isBlank()).map(Path::of)
+                .orElse(Path.of(workspace, ".build-cache"));
+        LOG.infof("build cache enabled=%s, dir=%s, maxEntries=%d", enabled, cacheDir, maxEntries);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /*
+     * recipe = anything else that changes the output (Dockerfile, nginx.conf, ...).
+     */
+    public String key(Path template, String companyId, String recipe) throws Exception {
+        String material = String.join("\n",
+                FORMAT,
+                vue.templateFingerprint(template),
+                vue.configFingerprint(companyId),
+                recipe == null ? "" : recipe);
+        return HashUtils.hashString(material, "SHA-256");
+    }
+
+    public String imageTag(String key) {
+        return "c-" + key.substring(0, 16);
+    }
+
+    /*
+     * return cached dist dir, or null on miss.
+     */
+    public Path lookupDist(String key) {
+        Path entry = cacheDir.resolve(key);
+        Path dist = entry.resolve("dist");
+        if (Files.exists(entry.resolve(COMPLETE_MARKER)) && Files.isDirectory(dist)) {
+            touch(entry);
+            return dist;
+        }
+        return null;
+    }
+
+    /*
+     * replace appDist with a copy of the cached dist.
+     */
+    public void restoreDist(Path cachedDist, Path appDist) throws IOException {
+        FileUtils.deleteTree(appDist);
+        FileUtils.copyTree(cachedDist, appDist);
+    }
+
+    /*
+     * copy dist into the cache. Written to a temp dir first and moved into place,
+     * so a concurrent lookup never sees a half-written entry.
+     */
+    public void store(String key, Path dist) {
+        Path entry = cacheDir.resolve(key);
+        if (Files.exists(entry.resolve(COMPLETE_MARKER)))
+            return;
+        Path tmp = cacheDir.resolve(key + ".tmp-" + UUID.randomUUID());
+        try {
+            Files.createDirectories(cacheDir);
+            FileUtils.copyTree(dist, tmp.resolve("dist"));
+            Files.writeString(tmp.resolve(COMPLETE_MARKER), FORMAT);
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // another build stored the same key first
+                FileUtils.deleteTree(tmp);
+            }
+            evict();
+            LOG.infof("[BuildCache] stored %s", key);
+        } catch (Exception e) {
+            LOG.warnf("[BuildCache] store failed for %s: %s", key, e.getMessage());
+            try {
+                FileUtils.deleteTree(tmp);
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    // ---------- housekeeping ----------
+
+    private void evict() throws IOException {
+        List<Path> entries;
+        try (var stream = Files.list(cacheDir)) {
+            entries = stream
+                    .filter(p -> Files.exists(p.resolve(COMPLETE_MARKER)))
+                    .sorted(Comparator.comparing(BuildCacheService::lastModified))
+                    .toList();
+        }
+        for (int i = 0; i < entries.size() - maxEntries; i++) {
+            LOG.infof("[BuildCache] evict %s", entries.get(i).getFileName());
+            FileUtils.deleteTree(entries.get(i));
+        }
+    }
+
+    private static FileTime lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void touch(Path p) {
+        try {
+            Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignore) {
+        }
+    }
+}
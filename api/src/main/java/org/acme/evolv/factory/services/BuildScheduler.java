@@ -0,0 +1,281 @@
+package org.acme.evolv.factory.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.utils.LogSseHub;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Bounded, fair scheduler in front of VueFactoryService.
+ * - at most factory.build.concurrency builds run at once
+ * - one queue per company, served round-robin; inside a company higher priority first, FIFO within a priority
+ * - client priorities are clamped to +-factory.build.maxPriority, so they only reorder a company's own builds
+ * - admission control: total and per-company queue limits, rejected submissions fail fast
+ * - queue position / ETA pushed to each job's streamId through LogSseHub
+ */
+@ApplicationScoped
+public class BuildScheduler {
+
+    private static final Logger LOG = Logger.getLogger(BuildScheduler.class);
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+
+    @Inject
+    LogSseHub hub;
+
+    @ConfigProperty(name = "factory.build.concurrency", defaultValue = "2")
+    int concurrency;
+
+    @ConfigProperty(name = "factory.build.maxQueue", defaultValue = "50")
+    int maxQueue;
+
+    @ConfigProperty(name = "factory.build.maxQueuePerCompany", defaultValue = "5")
+    int maxQueuePerCompany;
+
+    @ConfigProperty(name = "factory.build.maxPriority", defaultValue = "10")
+    int maxPriority;
+
+    // first guess for the ETA until real build durations are observed
+    @ConfigProperty(name = "factory.build.initialEtaSeconds", defaultValue = "180")
+    long initialEtaSeconds;
+
+    @ConfigProperty(name = "factory.build.retention", defaultValue = "PT1H")
+    Duration retention;
+
+    public static final class Job {
+        final String id = UUID.randomUUID().toString();
+        final String companyId;
+        final String name;
+        final String app;
+        final int priority;
+        final String streamId;
+        final long seq;
+        final Callable<VueFactoryService.Result> work;
+        final CompletableFuture<VueFactoryService.Result> future = new CompletableFuture<>();
+        final Instant submittedAt = Instant.now();
+        volatile Instant startedAt;
+        volatile Instant finishedAt;
+        volatile String status = QUEUED;
+        volatile String error;
+
+        Job(String companyId, String name, int priority, String streamId, long seq,
+                Callable<VueFactoryService.Result> work) {
+            this.companyId = companyId;
+            this.name = name;
+            this.app = app(name);
+            this.priority = priority;
+            this.streamId = streamId;
+            this.seq = seq;
+            this.work = work;
+        }
+
+        public String id() { return id; }
+        public String companyId() { return companyId; }
+        public String name() { return name; }
+        public String status() { return status; }
+        public String error() { return error; }
+        public CompletableFuture<VueFactoryService.Result> future() { return future; }
+    }
+
+    /** Snapshot of a job for the API. position/etaSeconds are only set while queued. */
+    public record JobView(String jobId, String companyId, String name, String status,
+            Integer position, Long etaSeconds, String error, VueFactoryService.Result result) {
+    }
+
+    private static final Comparator<Job> ORDER = Comparator
+            .comparingInt((Job j) -> -j.priority)
+            .thenComparingLong(j -> j.seq);
+
+    // company -> its queue; iteration order is the round-robin order
+    private final LinkedHashMap<String, PriorityQueue<Job>> queues = new LinkedHashMap<>();
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private ExecutorService workers;
+    private long seq;
+    private int queued;
+    private int running;
+    private double avgBuildSeconds;
+
+    @PostConstruct
+    void init() {
+        workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("build-", 0).factory());
+        avgBuildSeconds = initialEtaSeconds;
+        LOG.infof("build scheduler concurrency=%d, maxQueue=%d, maxQueuePerCompany=%d",
+                concurrency, maxQueue, maxQueuePerCompany);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /*
+     * queue a build; throws RejectedExecutionException when admission control refuses it.
+     * A build already queued/running for the same app and company is returned instead of a duplicate;
+     * the same app for another company throws IllegalStateException.
+     */
+    public synchronized Job submit(String companyId, String name, int priority, String streamId,
+            Callable<VueFactoryService.Result> work) {
+        purgeFinished();
+        String company = companyId == null ? "" : companyId;
+        String app = app(name);
+        priority = Math.max(-maxPriority, Math.min(maxPriority, priority));
+
+        for (Job j : jobs.values()) {
+            if (j.app.equals(app) && (QUEUED.equals(j.status) || RUNNING.equals(j.status))) {
+                if (!j.companyId.equals(company))
+                    throw new IllegalStateException("app " + app + " is being built for another company");
+                return j;
+            }
+        }
+        if (queued >= maxQueue) {
+            throw new RejectedExecutionException("build queue full (" + maxQueue + ")");
+        }
+        PriorityQueue<Job> q = queues.get(company);
+        if (q != null && q.size() >= maxQueuePerCompany) {
+            throw new RejectedExecutionException(
+                    "too many queued builds for company " + company + " (" + maxQueuePerCompany + ")");
+        }
+
+        Job job = new Job(company, name, priority, streamId, seq++, work);
+        jobs.put(job.id, job);
+        queues.computeIfAbsent(company, k -> new PriorityQueue<>(ORDER)).add(job);
+        queued++;
+        LOG.infof("[BuildScheduler] queued job=%s company=%s name=%s priority=%d", job.id, company, name, priority);
+
+        dispatch();
+        publishPositions();
+        return job;
+    }
+
+    public JobView view(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null)
+            return null;
+        Integer position = null;
+        Long eta = null;
+        if (QUEUED.equals(job.status)) {
+            synchronized (this) {
+                List<Job> order = simulateOrder();
+                int idx = order.indexOf(job);
+                if (idx >= 0) {
+                    position = idx + 1;
+                    eta = etaSeconds(position);
+                }
+            }
+        }
+        return new JobView(job.id, job.companyId, job.name, job.status, position, eta, job.error,
+                job.future.isDone() && !job.future.isCompletedExceptionally() ? job.future.getNow(null) : null);
+    }
+
+    public synchronized Map<String, Object> stats() {
+        return Map.of(
+                "concurrency", concurrency,
+                "running", running,
+                "queued", queued,
+                "avgBuildSeconds", Math.round(avgBuildSeconds));
+    }
+
+    // ---------- dispatch ----------
+
+    private void dispatch() {
+        while (running < concurrency && queued > 0) {
+            Job job = pollNext(queues);
+            queued--;
+            running++;
+            job.status = RUNNING;
+            job.startedAt = Instant.now();
+            send(job, "build started (job " + job.id + ")");
+            workers.submit(() -> execute(job));
+        }
+    }
+
+    private void execute(Job job) {
+        try {
+            VueFactoryService.Result r = job.work.call();
+            job.status = DONE;
+            job.future.complete(r);
+        } catch (Throwable e) {
+            job.status = FAILED;
+            job.error = e.getMessage();
+            job.future.completeExceptionally(e);
+            LOG.warnf("[BuildScheduler] job=%s name=%s failed: %s", job.id, job.name, e.getMessage());
+        } finally {
+            job.finishedAt = Instant.now();
+            synchronized (this) {
+                running--;
+                double took = Duration.between(job.startedAt, job.finishedAt).toMillis() / 1000.0;
+                avgBuildSeconds = 0.7 * avgBuildSeconds + 0.3 * took;
+                dispatch();
+                publishPositions();
+            }
+        }
+    }
+
+    /*
+     * the company that waited longest in the round-robin runs its top-priority job, then moves to the back.
+     * Priority never crosses companies.
+     */
+    static Job pollNext(LinkedHashMap<String, PriorityQueue<Job>> qs) {
+        String pick = qs.keySet().iterator().next();
+        PriorityQueue<Job> q = qs.remove(pick);
+        Job job = q.poll();
+        if (!q.isEmpty())
+            qs.put(pick, q);
+        return job;
+    }
+
+    // ---------- positions / ETA ----------
+
+    private List<Job> simulateOrder() {
+        LinkedHashMap<String, PriorityQueue<Job>> copy = new LinkedHashMap<>();
+        queues.forEach((k, v) -> copy.put(k, new PriorityQueue<>(v)));
+        List<Job> order = new ArrayList<>(queued);
+        while (!copy.isEmpty()) {
+            order.add(pollNext(copy));
+        }
+        return order;
+    }
+
+    /*
+     * seconds until the job at this queue position is expected to start.
+     */
+    private long etaSeconds(int position) {
+        long waves = (position + concurrency - 1) / concurrency;
+        return Math.round(waves * avgBuildSeconds);
+    }
+
+    private void publishPositions() {
+        List<Job> order = simulateOrder();
+        for (int i = 0; i < order.size(); i++) {
+            Job job = order.get(i);
+            send(job, "queued: position " + (i + 1) + "/" + order.size() + ", eta ~" + etaSeconds(i + 1) + "s");
+        }
+    }
+
+    private void send(Job job, String line) {
+        if (job.streamId != null && !job.streamId.isBlank()) {
+            hub.send(job.streamId, line);
+        }
+    }
+
+    private static String app(String name) {
+        return name.replaceAll("[^a-zA-Z0-9-_]", "-").toLowerCase();
+    }
+
+    private void purgeFinished() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(j -> j.finishedAt != null && j.finishedAt.isBefore(cutoff));
+    }
+}
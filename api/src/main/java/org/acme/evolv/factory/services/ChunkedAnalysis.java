@@ -0,0 +1,131 @@
+package org.acme.evolv.factory.services;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.utils.FileUtils;
+import org.acme.evolv.utils.PdfChunks;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Map-reduce analysis of large PDFs (analysis.chunk.minPages pages and up).
+ * - the upload is cut into page-range PDFs (PdfChunks, file-backed, never whole in memory)
+ * - map: each chunk is analyzed as its own upstream call, at most analysis.chunk.concurrency at a time and
+ *   never more than the company has free bulkhead slots for (AnalysisLimiter.acquireUpTo)
+ * - reduce: analysis.chunk.reducePath (falling back to analysis.fanout.mergePath) summarizes the chunk answers;
+ *   with neither set there is nothing to reduce with and PDFs go upstream whole
+ * Runs through AnalyzeFanOut, so per-chunk results stream to streamId like fan-out files do.
+ */
+@ApplicationScoped
+public class ChunkedAnalysis {
+
+    private static final Logger LOG = Logger.getLogger(ChunkedAnalysis.class);
+
+    @Inject
+    AnalyzeFanOut fanOut;
+
+    @Inject
+    AnalysisLimiter limiter;
+
+    @ConfigProperty(name = "analysis.chunk.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "analysis.chunk.minPages", defaultValue = "60")
+    int minPages;
+
+    @ConfigProperty(name = "analysis.chunk.pages", defaultValue = "25")
+    int pagesPerChunk;
+
+    @ConfigProperty(name = "analysis.chunk.concurrency", defaultValue = "8")
+    int concurrency;
+
+    @ConfigProperty(name = "analysis.chunk.reducePath")
+    Optional<String> reducePath;
+
+    @ConfigProperty(name = "analysis.fanout.mergePath")
+    Optional<String> mergePath;
+
+    private final Path workDir = Path.of(System.getProperty("java.io.tmpdir"), "evolv-pdf-chunks");
+
+    /*
+     * end of a synchronous chunked analysis on streamId (jobs close their stream themselves).
+     */
+    public void finish(String streamId, Map<String, Object> result) {
+        fanOut.done(streamId, result);
+    }
+
+    /*
+     * error event + close, so a client following streamId is not left waiting.
+     */
+    public void fail(String streamId, String message) {
+        fanOut.failed(streamId, message);
+    }
+
+    /*
+     * true when pdf is big enough to be worth splitting and a reduce endpoint is configured;
+     * unreadable PDFs go upstream whole.
+     */
+    public boolean applies(Path pdf) {
+        if (!enabled || reduce().isEmpty())
+            return false;
+        try {
+            return PdfChunks.pageCount(pdf) >= minPages;
+        } catch (IOException e) {
+            LOG.debugf("chunking: cannot read %s, sending it whole: %s", pdf, e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+     * analyze pdf chunk by chunk. Result has the PdfResource /analyze shape plus "chunks" and "parts".
+     * Takes its own bulkhead slots for companyId, waiting up to slotWait (null = the limiter's queueWait) for the first.
+     */
+    public Map<String, Object> analyze(String fileName, Path pdf, String customPrompt, String model, String streamId,
+            Object companyId, Duration slotWait) throws Exception {
+        Path dir = workDir.resolve(UUID.randomUUID().toString());
+        try {
+            long started = System.currentTimeMillis();
+            List<PdfChunks.Chunk> chunks = PdfChunks.split(pdf, Math.max(1, pagesPerChunk), dir);
+            List<AnalysisJobs.Upload> parts = new ArrayList<>();
+            for (PdfChunks.Chunk c : chunks) {
+                parts.add(new AnalysisJobs.Upload(
+                        fileName + " (pages " + c.fromPage() + "-" + c.toPage() + ")", "application/pdf", c.file()));
+            }
+            LOG.infof("chunking: %s -> %d chunk(s) of %d pages", fileName, chunks.size(), pagesPerChunk);
+
+            Map<String, Object> r;
+            try (var permit = limiter.acquireUpTo(companyId, model, concurrency, slotWait)) {
+                r = fanOut.run(parts, customPrompt, "", model, streamId, permit.slots(), reduce());
+            }
+            String note = (String) r.get("note");
+            LOG.infof("chunking: %s analyzed in %d ms", fileName, System.currentTimeMillis() - started);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("file", fileName);
+            result.put("markdown", r.get("markdown"));
+            result.put("model", r.get("model"));
+            result.put("note", "analyzed in " + chunks.size() + " chunks" + (note.isEmpty() ? "" : "; " + note));
+            result.put("prompt_used", customPrompt == null ? "" : customPrompt);
+            result.put("text_bytes", 0);
+            result.put("chunks", chunks.size());
+            result.put("parts", r.get("parts"));
+            return result;
+        } finally {
+            try {
+                FileUtils.deleteTree(dir);
+            } catch (IOException e) {
+                LOG.debugf("chunking: cannot delete %s: %s", dir, e.getMessage());
+            }
+        }
+    }
+
+    private Optional<String> reduce() {
+        return reducePath.filter(p -> !p.isBlank()).or(() -> mergePath.filter(p -> !p.isBlank()));
+    }
+}
@@ -0,0 +1,116 @@
+package org.acme.evolv.factory.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.utils.HashUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * What each container is serving: relative path -> sha-256 of every file under its html root.
+ * Stored as {manifestDir}/{container}.json, written after a successful deploy and dropped
+ * before a deploy starts or when the container is recreated, so a stale manifest is never trusted.
+ * VueFactoryService diffs it against the new dist/ to push only changed files.
+ */
+@ApplicationScoped
+public class DeployManifestService {
+
+    private static final Logger LOG = Logger.getLogger(DeployManifestService.class);
+
+    private static final TypeReference<TreeMap<String, String>> MANIFEST = new TypeReference<>() {
+    };
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "factory.workspace", defaultValue = "C:\\\\vue-factory")
+    String workspace;
+
+    @ConfigProperty(name = "factory.deploy.incremental", defaultValue = "true")
+    boolean enabled;
+
+    private Path manifestDir;
+
+    /** Files to upload (changed or new) and files to delete, both relative to dist/. */
+    public record Diff(List<String> changed, List<String> removed) {
+        public boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        manifestDir = Path.of(workspace, ".manifests");
+        LOG.infof("incremental deploy enabled=%s, manifests=%s", enabled, manifestDir);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public SortedMap<String, String> compute(Path dist) throws Exception {
+        SortedMap<String, String> files = new TreeMap<>();
+        try (var stream = Files.walk(dist)) {
+            for (Path p : stream.filter(Files::isRegularFile).toList()) {
+                String rel = dist.relativize(p).toString().replace('\\', '/');
+                files.put(rel, HashUtils.hashFile(p, "SHA-256"));
+            }
+        }
+        return files;
+    }
+
+    /*
+     * manifest of the last deploy into container, or null if unknown.
+     */
+    public SortedMap<String, String> load(String container) {
+        Path file = file(container);
+        if (!enabled || !Files.isRegularFile(file))
+            return null;
+        try {
+            return mapper.readValue(file.toFile(), MANIFEST);
+        } catch (IOException e) {
+            LOG.warnf("unreadable manifest %s, full deploy: %s", file, e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(String container, SortedMap<String, String> files) throws IOException {
+        if (!enabled)
+            return;
+        Files.createDirectories(manifestDir);
+        Path tmp = manifestDir.resolve(container + ".json." + UUID.randomUUID());
+        mapper.writeValue(tmp.toFile(), files);
+        Files.move(tmp, file(container), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete(String container) throws IOException {
+        Files.deleteIfExists(file(container));
+    }
+
+    public static Diff diff(Map<String, String> before, Map<String, String> after) {
+        List<String> changed = new ArrayList<>();
+        after.forEach((rel, hash) -> {
+            if (!hash.equals(before.get(rel)))
+                changed.add(rel);
+        });
+        List<String> removed = new ArrayList<>();
+        for (String rel : before.keySet()) {
+            if (!after.containsKey(rel))
+                removed.add(rel);
+        }
+        return new Diff(changed, removed);
+    }
+
+    private Path file(String container) {
+        return manifestDir.resolve(container + ".json");
+    }
+}
@@ -1,26 +1,42 @@
 package org.acme.evolv.factory.services;
 
+import org.acme.evolv.factory.docker.ContainerRegistry;
+import org.acme.evolv.factory.docker.DockerEngineClient;
 import org.acme.evolv.utils.LogSseHub;
+import org.acme.evolv.utils.ProcessRunner;
+import org.acme.evolv.utils.TarUtils;
 import org.acme.evolv.utils.VueUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Docker 
+ * Docker
  * - build images
  * - run/stop containers
  * - copy files to/from containers
  * - exec commands in containers
  * - etc.
- * Uses direct 'docker' CLI calls, no Docker SDK.
- * Assumes 'docker' is in PATH and user has permission to run it.
- * Note: on Windows, this means running in a terminal with admin rights.
+ * Two backends, chosen by docker.backend:
+ *   cli (default) - direct 'docker' CLI calls, no Docker SDK.
+ *                   Assumes 'docker' is in PATH and user has permission to run it.
+ *                   Note: on Windows, this means running in a terminal with admin rights.
+ *   api           - Docker Engine API over the daemon's Unix socket (DockerEngineClient),
+ *                   no process per call. Image builds still use the CLI.
+ *                   Falls back to cli when the socket is missing.
+ * exists / isRunning are answered from ContainerRegistry (event-driven) while it is in sync.
  * Note: this is a simple implementation, not production-ready.
  *     No retries, no advanced error handling, no Windows support, etc.
  *   Just enough to get the job done.
@@ -32,6 +48,38 @@ public class DockerService {
     private static final Duration MID  = Duration.ofMinutes(5);
     private static final Duration LONG = Duration.ofMinutes(15);
 
+    private static final String NGINX_ROOT = "/usr/share/nginx";
+
+    private static final Map<String, String> BUILDKIT = Map.of("DOCKER_BUILDKIT", "1");
+
+    @Inject
+    DockerEngineClient engine;
+
+    @Inject
+    ContainerRegistry registry;
+
+    @ConfigProperty(name = "docker.backend", defaultValue = "cli")
+    String backend;
+
+    // true = the old behaviour, every build from scratch
+    @ConfigProperty(name = "factory.image.noCache", defaultValue = "false")
+    boolean noCache;
+
+    private boolean useApi;
+
+    // container -> shell args that worked last time (saves the probing execs)
+    private final ConcurrentHashMap<String, List<String>> shells = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        useApi = "api".equalsIgnoreCase(backend);
+        if (useApi && !engine.available()) {
+            LOG.warnf("docker.backend=api but docker socket not found, using cli");
+            useApi = false;
+        }
+        LOG.infof("docker backend=%s", useApi ? "api" : "cli");
+    }
+
     // ---------- helpers ----------
     private static boolean isWindows() {
         LOG.debug("Checking if OS is Windows");
@@ -50,8 +98,27 @@ public class DockerService {
                 line -> { if (hub != null && streamId != null) hub.send(streamId, line); });
     }
 
+    private static String run(List<String> cmd, Duration timeout, ProcessRunner.StdinWriter stdin,
+                              String streamId, LogSseHub hub) throws Exception {
+        return VueUtils.runDirect(cmd, null, timeout, false,
+                line -> { if (hub != null && streamId != null) hub.send(streamId, line); }, stdin);
+    }
+
+    private static String emit(String out, String streamId, LogSseHub hub) {
+        if (hub != null && streamId != null && out != null && !out.isBlank()) {
+            out.lines().forEach(line -> hub.send(streamId, line));
+        }
+        return out;
+    }
+
     // ---------- container lifecycle ----------
     public boolean exists(String container) throws Exception {
+        if (registry.ready()) {
+            return registry.get(container) != null;
+        }
+        if (useApi) {
+            return engine.inspect(container, MID) != null;
+        }
         try {
             run(List.of(dockerCmd(), "inspect", container), null, MID, false);
             return true;
@@ -60,78 +127,266 @@ public class DockerService {
         }
     }
     public boolean isRunning(String container) throws Exception {
+        if (registry.ready()) {
+            var c = registry.get(container);
+            if (c == null) throw new RuntimeException("No such container: " + container);
+            return c.running();
+        }
+        if (useApi) {
+            var info = engine.inspect(container, MID);
+            if (info == null) throw new RuntimeException("No such container: " + container);
+            return info.path("State").path("Running").asBoolean(false);
+        }
         String out = run(List.of(dockerCmd(), "inspect", "-f", "{{.State.Running}}", container), null, MID, false);
         return out.trim().equalsIgnoreCase("true");
     }
     public void ensureRunning(String container) throws Exception {
         if (!isRunning(container)) {
-            run(List.of(dockerCmd(), "start", container), null, MID, false);
+            if (useApi) {
+                engine.start(container, MID);
+            } else {
+                run(List.of(dockerCmd(), "start", container), null, MID, false);
+            }
+            registry.refresh(container);
+        }
+    }
+
+    /*
+     * docker stop with a short grace period (idle hibernation, see TenantProxy).
+     */
+    public void stop(String container) throws Exception {
+        if (useApi) {
+            engine.stop(container, 5, MID);
+        } else {
+            run(List.of(dockerCmd(), "stop", "-t", "5", container), null, MID, false);
         }
+        registry.refresh(container);
+    }
+
+    // ---------- images ----------
+    public boolean imageExists(String image) throws Exception {
+        if (useApi) {
+            return engine.imageExists(image, MID);
+        }
+        try {
+            run(List.of(dockerCmd(), "image", "inspect", image), null, MID, false);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+    public String tag(String image, String alias) throws Exception {
+        if (useApi) {
+            engine.tag(image, alias, MID);
+            return "";
+        }
+        return run(List.of(dockerCmd(), "tag", image, alias), null, MID, false);
     }
 
     // ---------- build/run ----------
+    // BuildKit with its layer cache: unchanged layers (base image, identical COPYs) are not rebuilt
     public String build(File dir, String image) throws Exception {
-        return run(List.of(dockerCmd(), "build", "--no-cache", "--progress=plain", "-t", image, "."),
-                   dir, LONG, false);
+        return build(dir, image, null, null);
     }
     public String build(File dir, String image, String streamId, LogSseHub hub) throws Exception {
-        return run(List.of(dockerCmd(), "build", "--no-cache", "--progress=plain", "-t", image, "."),
-                   dir, LONG, false, streamId, hub);
+        List<String> cmd = new ArrayList<>(List.of(dockerCmd(), "build"));
+        if (noCache) cmd.add("--no-cache");
+        cmd.addAll(List.of("--progress=plain", "-t", image, "."));
+        return VueUtils.runDirect(cmd, dir, BUILDKIT, LONG, false,
+                line -> { if (hub != null && streamId != null) hub.send(streamId, line); }, null);
     }
 
     public String runDetached(String container, int port, String image) throws Exception {
-        return run(List.of(dockerCmd(), "run", "-d", "--name", container, "-p", port + ":80", image),
-                   null, MID, false);
+        return runDetached(container, port, image, null, null);
     }
     public String runDetached(String container, int port, String image, String streamId, LogSseHub hub) throws Exception {
-        return run(List.of(dockerCmd(), "run", "-d", "--name", container, "-p", port + ":80", image),
-                   null, MID, false, streamId, hub);
+        String out = useApi
+                ? emit(engine.createAndStart(container, port, image, MID) + "\n", streamId, hub)
+                : run(List.of(dockerCmd(), "run", "-d", "--name", container, "-p", port + ":80", image),
+                      null, MID, false, streamId, hub);
+        registry.refresh(container);
+        return out;
     }
 
     public String rmForce(String container) throws Exception {
-        return run(List.of(dockerCmd(), "rm", "-f", container), null, MID, true);
+        return rmForce(container, null, null);
     }
     public String rmForce(String container, String streamId, LogSseHub hub) throws Exception {
-        return run(List.of(dockerCmd(), "rm", "-f", container), null, MID, true, streamId, hub);
+        shells.remove(container);
+        try {
+            if (useApi) {
+                return emit(engine.removeForce(container, MID) ? container + "\n" : "", streamId, hub);
+            }
+            return run(List.of(dockerCmd(), "rm", "-f", container), null, MID, true, streamId, hub);
+        } finally {
+            registry.forget(container);
+        }
     }
 
     // ---------- cp / exec ----------
-    public String cpToContainer(java.nio.file.Path src, String container, String dst) throws Exception {
-        return run(List.of(dockerCmd(), "cp", src.toString(), container + ":" + dst), null, LONG, false);
+    public String cpToContainer(Path src, String container, String dst) throws Exception {
+        return cpToContainer(src, container, dst, null, null);
     }
-    public String cpToContainer(java.nio.file.Path src, String container, String dst, String streamId, LogSseHub hub) throws Exception {
+    public String cpToContainer(Path src, String container, String dst, String streamId, LogSseHub hub) throws Exception {
+        if (useApi) {
+            // same target layout as `docker cp`: a dir lands as dst/<name>, a file is written as dst
+            if (Files.isDirectory(src)) {
+                String prefix = src.getFileName() + "/";
+                engine.putArchive(container, dst, out -> {
+                    TarUtils.writeTree(src, prefix, out);
+                    TarUtils.finish(out);
+                }, LONG);
+            } else {
+                int slash = dst.lastIndexOf('/');
+                String dir = slash <= 0 ? "/" : dst.substring(0, slash);
+                String name = dst.endsWith("/") ? src.getFileName().toString() : dst.substring(slash + 1);
+                engine.putArchive(container, dir, out -> {
+                    TarUtils.writeFile(src, name, out);
+                    TarUtils.finish(out);
+                }, LONG);
+            }
+            return emit("copied " + src.getFileName() + " -> " + container + ":" + dst, streamId, hub);
+        }
         return run(List.of(dockerCmd(), "cp", src.toString(), container + ":" + dst), null, LONG, false, streamId, hub);
     }
 
+    /*
+     * stream a tar (built on the fly) into dir inside the container:
+     * PUT /containers/{id}/archive (api) or `docker cp - container:dir` (cli).
+     */
+    public void putArchive(String container, String dir, ProcessRunner.StdinWriter tar, String streamId, LogSseHub hub)
+            throws Exception {
+        if (useApi) {
+            engine.putArchive(container, dir, tar::writeTo, LONG);
+            return;
+        }
+        run(List.of(dockerCmd(), "cp", "-", container + ":" + dir), LONG, tar, streamId, hub);
+    }
+
+    /*
+     * overwrite the given files (relative to root) under dir, one archive for all of them.
+     */
+    public void putFiles(Path root, List<String> relPaths, String container, String dir, String streamId,
+            LogSseHub hub) throws Exception {
+        putArchive(container, dir, out -> {
+            TarUtils.writeFiles(root, relPaths, "", out);
+            TarUtils.finish(out);
+        }, streamId, hub);
+        emit("updated " + String.join(", ", relPaths) + " in " + container + ":" + dir, streamId, hub);
+    }
+
+    /*
+     * replace the nginx html root with dist, atomically:
+     *   1) dist is streamed as releases/<id>/ next to html (nothing touches the live dir)
+     *   2) one exec points the html symlink at the new release and drops old releases (swapScript)
+     */
+    public String deployDist(Path dist, String container, String streamId, LogSseHub hub) throws Exception {
+        String release = Long.toString(System.currentTimeMillis(), 36);
+        putArchive(container, NGINX_ROOT, out -> {
+            TarUtils.writeDir("releases", out);
+            TarUtils.writeTree(dist, "releases/" + release + "/", out);
+            TarUtils.finish(out);
+        }, streamId, hub);
+        emit("streamed dist to " + container + ":" + NGINX_ROOT + "/releases/" + release, streamId, hub);
+
+        return execSafe(container, swapScript(release, List.of()), streamId, hub);
+    }
+
+    /*
+     * incremental deploy: same swap as deployDist, but the new release starts as hard links to the live
+     * one's files (no file data copied in the container) and only the changed files cross the wire;
+     * removed ones are deleted from the release before it goes live.
+     * Changed files never write through to the live release: the archive upload replaces (unlinks) an
+     * existing file instead of writing into it, and `rm` only drops the release's link. Without hard links
+     * (cp -l unsupported / fails) it falls back to a full in-container copy of the tree.
+     */
+    public String deployDiff(Path dist, List<String> changed, List<String> removed, String container,
+            String streamId, LogSseHub hub) throws Exception {
+        String release = Long.toString(System.currentTimeMillis(), 36);
+        execSafe(container, "set -e; cd " + NGINX_ROOT + "; mkdir -p releases; rm -rf releases/" + release
+                + "; cp -al html/. releases/" + release + "/ 2>/dev/null"
+                + " || { rm -rf releases/" + release + "; cp -a html/. releases/" + release + "/; }",
+                streamId, hub);
+        if (!changed.isEmpty()) {
+            putArchive(container, NGINX_ROOT, out -> {
+                TarUtils.writeFiles(dist, changed, "releases/" + release + "/", out);
+                TarUtils.finish(out);
+            }, streamId, hub);
+        }
+        emit("streamed " + changed.size() + " changed file(s), " + removed.size() + " removed, to "
+                + container + ":" + NGINX_ROOT + "/releases/" + release, streamId, hub);
+        return execSafe(container, swapScript(release, removed), streamId, hub);
+    }
+
+    /*
+     * point html at releases/<release> with one rename(2) over the html symlink, then drop the other releases.
+     * Images ship html as a symlink to releases/initial, so there is no moment without an html root.
+     * Only containers from older images (html a plain directory) are converted once, by two renames in a row.
+     */
+    private static String swapScript(String release, List<String> removed) {
+        StringBuilder sh = new StringBuilder("set -e; cd " + NGINX_ROOT + "; ");
+        for (String rel : removed) {
+            sh.append("rm -f ").append(quote("releases/" + release + "/" + rel)).append("; ");
+        }
+        sh.append("ln -sfn releases/").append(release).append(" html.next; ")
+          .append("if [ -d html ] && [ ! -L html ]; then mv html releases/.initial; fi; ")
+          .append("mv -Tf html.next html 2>/dev/null || { rm -f html; mv html.next html; }; ")
+          .append("find releases -mindepth 1 -maxdepth 1 ! -name ").append(release).append(" -exec rm -rf {} +");
+        return sh.toString();
+    }
+
+    private static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
     public String exec(String container, String cmd) throws Exception {
-        return run(List.of(dockerCmd(), "exec", container, "/bin/sh", "-lc", cmd), null, MID, false);
+        return exec(container, cmd, null, null);
     }
     public String exec(String container, String cmd, String streamId, LogSseHub hub) throws Exception {
-        return run(List.of(dockerCmd(), "exec", container, "/bin/sh", "-lc", cmd), null, MID, false, streamId, hub);
+        return execWith(container, List.of("/bin/sh", "-lc"), cmd, streamId, hub);
     }
 
     public String execSafe(String container, String cmd) throws Exception {
-        List<String> shell = pickShellArgs(container);
-        List<String> args = new ArrayList<>();
-        args.add(dockerCmd()); args.add("exec"); args.add(container);
-        args.addAll(shell);    args.add(cmd);
-        return run(args, null, MID, false);
+        return execSafe(container, cmd, null, null);
     }
     public String execSafe(String container, String cmd, String streamId, LogSseHub hub) throws Exception {
-        List<String> shell = pickShellArgs(container);
-        List<String> args = new ArrayList<>();
-        args.add(dockerCmd()); args.add("exec"); args.add(container);
-        args.addAll(shell);    args.add(cmd);
-        return run(args, null, MID, false, streamId, hub);
+        return execWith(container, pickShellArgs(container), cmd, streamId, hub);
+    }
+
+    private String execWith(String container, List<String> shell, String cmd, String streamId, LogSseHub hub)
+            throws Exception {
+        List<String> args = new ArrayList<>(shell);
+        args.add(cmd);
+        if (useApi) {
+            var r = engine.exec(container, args, MID);
+            emit(r.output(), streamId, hub);
+            if (r.exitCode() != 0) {
+                throw new RuntimeException("Command failed(" + r.exitCode() + "): docker exec " + container + " "
+                        + String.join(" ", args) + "\n" + r.output());
+            }
+            return r.output();
+        }
+        List<String> full = new ArrayList<>();
+        full.add(dockerCmd()); full.add("exec"); full.add(container);
+        full.addAll(args);
+        return run(full, null, MID, false, streamId, hub);
     }
 
     // ---------- shell detection ----------
     private List<String> pickShellArgs(String container) throws Exception {
+        List<String> cached = shells.get(container);
+        if (cached != null) return cached;
         String[] shells = { "/bin/sh", "/bin/ash", "/bin/bash" };
         for (String s : shells) {
             try {
-                run(List.of(dockerCmd(), "exec", container, s, "-lc", "echo ok"), null, MID, false);
-                return List.of(s, "-lc");
+                if (useApi) {
+                    if (engine.exec(container, List.of(s, "-lc", "echo ok"), MID).exitCode() != 0) continue;
+                } else {
+                    run(List.of(dockerCmd(), "exec", container, s, "-lc", "echo ok"), null, MID, false);
+                }
+                List<String> picked = List.of(s, "-lc");
+                this.shells.put(container, picked);
+                return picked;
             } catch (RuntimeException ignore) { /* try next */ }
         }
         return List.of("/bin/sh", "-lc"); // fallback
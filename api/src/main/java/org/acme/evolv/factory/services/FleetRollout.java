@@ -0,0 +1,289 @@
+package org.acme.evolv.factory.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.quarkus.runtime.StartupEvent;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.dto.RolloutDTO;
+import org.acme.evolv.entity.FleetRolloutEntity;
+import org.acme.evolv.entity.FleetRolloutTargetEntity;
+import org.acme.evolv.factory.repository.FleetRolloutRepository;
+import org.acme.evolv.utils.LogSseHub;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fleet-wide redeploy of the current template to every deployed tenant (app_port rows, container hosting).
+ * - tenants go through BuildScheduler at factory.rollout.priority (below the tenant's own interactive builds),
+ *   at most `parallelism` of them queued/running at once
+ * - failure budget: once maxFailures tenants failed, nothing new starts and the rollout is halted
+ * - progress lives in fleet_rollout / fleet_rollout_target: a paused, halted or interrupted (server restart)
+ *   rollout resumes where it stopped, optionally retrying the failed tenants
+ * - per-tenant events {"event":"target",...} and {"event":"rollout",...} multiplexed on one streamId
+ */
+@ApplicationScoped
+public class FleetRollout {
+
+    private static final Logger LOG = Logger.getLogger(FleetRollout.class);
+
+    @Inject
+    FleetRolloutRepository repo;
+
+    @Inject
+    BuildScheduler scheduler;
+
+    @Inject
+    VueFactoryService svc;
+
+    @Inject
+    VueProjectService vue;
+
+    @Inject
+    PortAllocator ports;
+
+    @Inject
+    LogSseHub hub;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "factory.templateVuePath", defaultValue = "E:\\\\lwpw\\\\EvolvAI\\\\sdk-ui\\\\chat-app")
+    String templateVuePath;
+
+    @ConfigProperty(name = "factory.rollout.parallelism", defaultValue = "4")
+    int defaultParallelism;
+
+    @ConfigProperty(name = "factory.rollout.maxFailures", defaultValue = "5")
+    int defaultMaxFailures;
+
+    @ConfigProperty(name = "factory.rollout.priority", defaultValue = "-10")
+    int priority;
+
+    /** The one rollout being driven by this process. */
+    private static final class Driver {
+        final UUID id;
+        final String streamId;
+        volatile boolean paused;
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        Driver(UUID id, String streamId) {
+            this.id = id;
+            this.streamId = streamId;
+        }
+    }
+
+    private volatile Driver current;
+
+    void onStart(@Observes StartupEvent ev) {
+        try {
+            int n = repo.interruptRunning();
+            if (n > 0)
+                LOG.infof("[FleetRollout] %d rollout(s) interrupted by the restart, resume them by id", n);
+        } catch (RuntimeException e) {
+            // rollouts unusable (e.g. fleet_rollout not migrated yet), the rest of the server is not
+            LOG.warnf("[FleetRollout] cannot check for interrupted rollouts: %s", e.getMessage());
+        }
+    }
+
+    /*
+     * start a rollout over all deployed tenants; IllegalStateException while another one runs.
+     */
+    public synchronized RolloutDTO start(Integer parallelism, Integer maxFailures, String streamId)
+            throws Exception {
+        requireIdle();
+        int p = Math.max(1, parallelism == null ? defaultParallelism : parallelism);
+        int f = Math.max(1, maxFailures == null ? defaultMaxFailures : maxFailures);
+        String version = vue.templateFingerprint(Path.of(templateVuePath)).substring(0, 16);
+        FleetRolloutEntity r = repo.create(version, p, f, repo.tenants());
+        LOG.infof("[FleetRollout] %s: template %s to %d tenant(s), parallelism=%d, maxFailures=%d",
+                r.id, version, r.total, p, f);
+        launch(r.id, p, f, streamId);
+        return repo.view(r.id, false);
+    }
+
+    /*
+     * continue a paused / halted / interrupted rollout; null if there is no such rollout.
+     */
+    public synchronized RolloutDTO resume(UUID id, boolean retryFailed, String streamId) {
+        FleetRolloutEntity r = repo.get(id);
+        if (r == null)
+            return null;
+        Driver d = current;
+        if (d != null && d.id.equals(id))
+            return repo.view(id, false);
+        requireIdle();
+        if (FleetRolloutRepository.DONE.equals(r.status) && !retryFailed)
+            throw new IllegalStateException("rollout " + id + " is done");
+        repo.resume(id, retryFailed);
+        launch(id, r.parallelism, r.maxFailures, streamId);
+        return repo.view(id, false);
+    }
+
+    /*
+     * stop starting tenants; the ones in flight finish, then the rollout is paused.
+     */
+    public RolloutDTO pause(UUID id) {
+        Driver d = current;
+        if (d == null || !d.id.equals(id))
+            throw new IllegalStateException("rollout " + id + " is not running");
+        d.paused = true;
+        return repo.view(id, false);
+    }
+
+    public RolloutDTO view(UUID id) {
+        return repo.view(id, true);
+    }
+
+    private void requireIdle() {
+        Driver d = current;
+        if (d != null)
+            throw new IllegalStateException("rollout " + d.id + " is already running");
+    }
+
+    private void launch(UUID id, int parallelism, int maxFailures, String streamId) {
+        Driver d = new Driver(id, streamId);
+        current = d;
+        Thread.ofVirtual().name("rollout-" + id).start(() -> drive(d, parallelism, maxFailures));
+    }
+
+    // ---------- driving ----------
+
+    private void drive(Driver d, int parallelism, int maxFailures) {
+        String outcome = FleetRolloutRepository.DONE;
+        String error = null;
+        try {
+            List<FleetRolloutTargetEntity> pending = repo.pending(d.id);
+            event(d, "rollout", Map.of("id", d.id.toString(), "status", "running", "pending", pending.size()));
+
+            Semaphore window = new Semaphore(parallelism);
+            try (var exec = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (FleetRolloutTargetEntity t : pending) {
+                    window.acquire();
+                    if (d.paused) {
+                        window.release();
+                        outcome = FleetRolloutRepository.PAUSED;
+                        break;
+                    }
+                    if (d.failed.get() >= maxFailures) {
+                        window.release();
+                        outcome = FleetRolloutRepository.HALTED;
+                        error = "failure budget used up (" + maxFailures + " failed)";
+                        break;
+                    }
+                    exec.submit(() -> {
+                        try {
+                            deploy(d, t);
+                        } finally {
+                            window.release();
+                        }
+                    });
+                }
+            } // waits for the tenants in flight
+        } catch (Exception e) {
+            outcome = FleetRolloutRepository.HALTED;
+            error = e.getMessage();
+            LOG.warnf("[FleetRollout] %s stopped: %s", d.id, e.getMessage());
+        }
+
+        try {
+            repo.setStatus(d.id, outcome, error);
+        } finally {
+            synchronized (this) {
+                current = null;
+            }
+        }
+        RolloutDTO v = repo.view(d.id, false);
+        LOG.infof("[FleetRollout] %s %s: %d done, %d failed, %d pending", d.id, outcome, v.done(), v.failed(),
+                v.pending());
+        Map<String, Object> end = new LinkedHashMap<>();
+        end.put("id", d.id.toString());
+        end.put("status", outcome);
+        end.put("done", v.done());
+        end.put("failed", v.failed());
+        end.put("pending", v.pending());
+        if (error != null)
+            end.put("error", error);
+        event(d, "rollout", end);
+        if (d.streamId != null && !d.streamId.isBlank()) {
+            hub.send(d.streamId, "[DONE]");
+            hub.close(d.streamId);
+        }
+    }
+
+    private void deploy(Driver d, FleetRolloutTargetEntity t) {
+        repo.targetRunning(t.id);
+        target(d, t, "running", null);
+        long started = System.currentTimeMillis();
+        try {
+            Integer port = ports.portOf(t.appName);
+            int p = port == null ? 0 : port;
+            BuildScheduler.Job job = submit(d, t, () -> svc.createFromTemplate(t.companyId, t.appName, p, null));
+            job.future().get();
+            repo.targetFinished(t.id, FleetRolloutRepository.DONE, null);
+            d.done.incrementAndGet();
+            target(d, t, "done", null);
+            LOG.debugf("[FleetRollout] %s redeployed in %d ms", t.appName, System.currentTimeMillis() - started);
+        } catch (RejectedExecutionException e) {
+            // paused while waiting for room in the build queue: never started, left for resume
+            repo.targetPending(t.id);
+            target(d, t, FleetRolloutRepository.PENDING, null);
+        } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            String msg = cause.getMessage() == null ? cause.toString() : cause.getMessage();
+            d.failed.incrementAndGet();
+            repo.targetFinished(t.id, FleetRolloutRepository.FAILED, msg);
+            target(d, t, "failed", msg);
+            LOG.warnf("[FleetRollout] %s failed: %s", t.appName, msg);
+        }
+    }
+
+    /*
+     * queue on the build scheduler; a full queue is waited out, not counted as a failure.
+     */
+    private BuildScheduler.Job submit(Driver d, FleetRolloutTargetEntity t,
+            Callable<VueFactoryService.Result> work) throws InterruptedException {
+        while (true) {
+            try {
+                return scheduler.submit(t.companyId, t.appName, priority, null, work);
+            } catch (RejectedExecutionException e) {
+                if (d.paused)
+                    throw e;
+                Thread.sleep(2000);
+            }
+        }
+    }
+
+    private void target(Driver d, FleetRolloutTargetEntity t, String status, String error) {
+        Map<String, Object> e = new LinkedHashMap<>();
+        e.put("app", t.appName);
+        e.put("status", status);
+        if (error != null)
+            e.put("error", error);
+        e.put("done", d.done.get());
+        e.put("failed", d.failed.get());
+        event(d, "target", e);
+    }
+
+    private void event(Driver d, String type, Map<String, Object> data) {
+        if (d.streamId == null || d.streamId.isBlank())
+            return;
+        try {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("event", type);
+            e.putAll(data);
+            hub.send(d.streamId, mapper.writeValueAsString(e));
+        } catch (Exception ex) {
+            LOG.debugf("rollout: cannot send %s event: %s", type, ex.getMessage());
+        }
+    }
+}
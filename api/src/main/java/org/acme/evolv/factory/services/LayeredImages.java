@@ -0,0 +1,146 @@
+package org.acme.evolv.factory.services;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.utils.FileUtils;
+import org.acme.evolv.utils.HashUtils;
+import org.acme.evolv.utils.LogSseHub;
+import org.acme.evolv.utils.SingleFlight;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * factory.image.layered: tenant images as one thin layer over a shared base image.
+ * - base ({factory.image.baseRepo}:{hash}): nginx + nginx.conf + the tenant-agnostic dist
+ *   (runtime mode's shared template build; none in build mode), built once per hash, reused by every tenant
+ * - tenant: FROM base + only the dist files that differ from it (runtime mode: its config.json/js, theme.css)
+ * - both built with BuildKit and the layer cache (DockerService.build)
+ * Build contexts live under {workspace}/.images (base) and {app}/.image (tenant).
+ */
+@ApplicationScoped
+public class LayeredImages {
+
+    private static final Logger LOG = Logger.getLogger(LayeredImages.class);
+
+    // html is a symlink to the live release (see DockerService.deployDist); the image's release is "initial"
+    private static final String RELEASE = "/usr/share/nginx/releases/initial/";
+
+    @Inject
+    DockerService docker;
+
+    @Inject
+    DeployManifestService manifests;
+
+    @Inject
+    LogSseHub hub;
+
+    @ConfigProperty(name = "factory.workspace", defaultValue = "C:\\\\vue-factory")
+    String workspace;
+
+    @ConfigProperty(name = "factory.image.layered", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "factory.image.baseRepo", defaultValue = "local/vue-factory-base")
+    String baseRepo;
+
+    @ConfigProperty(name = "factory.image.nginx", defaultValue = "nginx:1.27-alpine")
+    String nginxImage;
+
+    // base tag -> one build at a time (tenants of a new template version all ask at once)
+    private final SingleFlight<String, String> bases = new SingleFlight<>();
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /*
+     * build image for dist as base + diff; baseDist is the shared part (null: nginx + config only).
+     * Returns the build log.
+     */
+    public String build(Path appDir, Path dist, Path baseDist, String nginxConf, String image, String streamId)
+            throws Exception {
+        SortedMap<String, String> baseFiles = baseDist == null ? new TreeMap<>() : manifests.compute(baseDist);
+        String base = baseImage(baseDist, baseFiles, nginxConf, streamId);
+
+        var diff = DeployManifestService.diff(baseFiles, manifests.compute(dist));
+        Path ctx = appDir.resolve(".image");
+        FileUtils.deleteTree(ctx);
+        Path layer = ctx.resolve("layer");
+        Files.createDirectories(layer);
+        for (String rel : diff.changed()) {
+            stage(dist.resolve(rel), layer.resolve(rel));
+        }
+
+        StringBuilder df = new StringBuilder("FROM ").append(base).append('\n')
+                .append("COPY layer/ ").append(RELEASE).append('\n');
+        if (!diff.removed().isEmpty()) {
+            df.append("RUN cd ").append(RELEASE).append(" && rm -f");
+            diff.removed().forEach(rel -> df.append(" '").append(rel.replace("'", "'\\''")).append('\''));
+            df.append('\n');
+        }
+        Files.writeString(ctx.resolve("Dockerfile"), df.toString());
+
+        String out = docker.build(ctx.toFile(), image, streamId, hub);
+        LOG.infof("[LayeredImages] %s = %s + %d file(s), %d removed", image, base, diff.changed().size(),
+                diff.removed().size());
+        return "base " + base + ", tenant layer " + diff.changed().size() + " file(s)\n" + out;
+    }
+
+    /*
+     * tag of the base image for this nginx.conf + shared dist, built if missing.
+     */
+    private String baseImage(Path baseDist, SortedMap<String, String> baseFiles, String nginxConf, String streamId)
+            throws Exception {
+        String dockerfile = baseDockerfile(baseDist != null);
+        String key = HashUtils.hashString(dockerfile + "\n" + nginxConf + "\n" + baseFiles, "SHA-256")
+                .substring(0, 16);
+        String tag = baseRepo + ":" + key;
+        return bases.run(tag, () -> {
+            if (docker.imageExists(tag))
+                return tag;
+            Path ctx = Path.of(workspace, ".images", key);
+            FileUtils.deleteTree(ctx);
+            Files.createDirectories(ctx);
+            Files.writeString(ctx.resolve("Dockerfile"), dockerfile);
+            Files.writeString(ctx.resolve("nginx.conf"), nginxConf);
+            if (baseDist != null)
+                FileUtils.copyTree(baseDist, ctx.resolve("html"));
+            if (streamId != null && !streamId.isBlank())
+                hub.send(streamId, "building shared base image " + tag + "...");
+            docker.build(ctx.toFile(), tag, streamId, hub);
+            FileUtils.deleteTree(ctx);
+            LOG.infof("[LayeredImages] base image %s built", tag);
+            return tag;
+        });
+    }
+
+    private String baseDockerfile(boolean withHtml) {
+        return "FROM " + nginxImage + "\n"
+                + "COPY nginx.conf /etc/nginx/nginx.conf\n"
+                + (withHtml ? "COPY html/ " + RELEASE + "\n" : "")
+                + "RUN mkdir -p " + RELEASE + " && rm -rf /usr/share/nginx/html"
+                + " && ln -s releases/initial /usr/share/nginx/html\n"
+                + "EXPOSE 80\n"
+                + "CMD [\"nginx\",\"-g\",\"daemon off;\"]\n";
+    }
+
+    /*
+     * hard link into the build context when possible (same disk), else copy.
+     */
+    private static void stage(Path src, Path dst) throws IOException {
+        Files.createDirectories(dst.getParent());
+        try {
+            Files.createLink(dst, src);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(src, dst, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.acme.evolv.factory.services;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+
+import org.acme.evolv.factory.shell.Shell;
+import org.acme.evolv.utils.FileUtils;
+import org.acme.evolv.utils.HashUtils;
+import org.acme.evolv.utils.VueUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Shared node_modules store for template builds.
+ * - one install per package-lock.json hash, under {depsDir}/{hash}/node_modules
+ * - tenant app dirs get a symlink (junction on Windows) to it instead of their own npm ci
+ * - callers fall back to a real install when link() returns null
+ *   (no lockfile, linking not permitted, store install failed)
+ * - eviction (beyond maxEntries, least recently used first) skips entries still linked from an app dir
+ *   under the workspace; linking and evicting share one lock, so a build never links to a dying entry
+ */
+@ApplicationScoped
+public class NodeModulesStore {
+
+    private static final Logger LOG = Logger.getLogger(NodeModulesStore.class);
+
+    private static final String COMPLETE_MARKER = ".complete";
+
+    @ConfigProperty(name = "factory.workspace", defaultValue = "C:\\\\vue-factory")
+    String workspace;
+
+    @ConfigProperty(name = "factory.templateVuePath", defaultValue = "E:\\\\lwpw\\\\EvolvAI\\\\sdk-ui\\\\chat-app")
+    String templateVuePath;
+
+    @ConfigProperty(name = "factory.deps.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "factory.deps.dir")
+    Optional<String> depsDirCfg;
+
+    @ConfigProperty(name = "factory.deps.prewarm", defaultValue = "true")
+    boolean prewarm;
+
+    @ConfigProperty(name = "factory.deps.maxEntries", defaultValue = "5")
+    int maxEntries;
+
+    private Path depsDir;
+
+    // one lock per lockfile hash, so two tenants never run the same install twice
+    private final ConcurrentHashMap<String, Object> installLocks = new ConcurrentHashMap<>();
+
+    // links created / entries evicted one at a time
+    private final Object linkLock = new Object();
+
+    @PostConstruct
+    void init() {
+        depsDir = depsDirCfg.filter(d -> !d.isBlank()).map(Path::of)
+                .orElse(Path.of(workspace, ".deps"));
+        LOG.infof("node_modules store enabled=%s, dir=%s", enabled, depsDir);
+    }
+
+    /*
+     * install the template's dependencies in the background at startup.
+     */
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled || !prewarm)
+            return;
+        Path template = Path.of(templateVuePath);
+        if (!Files.exists(template.resolve("package-lock.json")))
+            return;
+        Thread.ofVirtual().name("deps-prewarm").start(() -> {
+            try {
+                String key = ensureInstalled(template, line -> LOG.debugf("[deps-prewarm] %s", line));
+                LOG.infof("[NodeModulesStore] pre-warmed %s", key);
+            } catch (Exception e) {
+                LOG.warnf("[NodeModulesStore] pre-warm failed: %s", e.getMessage());
+            }
+        });
+    }
+
+    /*
+     * point appDir/node_modules at the shared store for its lockfile.
+     * return the store key, or null when the caller has to run a real install.
+     */
+    public String link(File appDir, Consumer<String> onLine) {
+        if (!enabled)
+            return null;
+        Path app = appDir.toPath();
+        if (!Files.exists(app.resolve("package-lock.json")))
+            return null;
+        try {
+            while (true) {
+                String key = ensureInstalled(app, onLine);
+                synchronized (linkLock) {
+                    if (!Files.exists(depsDir.resolve(key).resolve(COMPLETE_MARKER)))
+                        continue; // evicted since, install again
+                    Path target = depsDir.resolve(key).resolve("node_modules");
+                    Path link = app.resolve("node_modules");
+
+                    if (Files.exists(link) && link.toRealPath().equals(target.toRealPath())) {
+                        return key;
+                    }
+                    removeNodeModules(app);
+                    if (!createLink(link, target)) {
+                        return null;
+                    }
+                    return key;
+                }
+            }
+        } catch (Exception e) {
+            LOG.warnf("[NodeModulesStore] link failed for %s, falling back to install: %s", appDir, e.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * drop appDir/node_modules without following it into the shared store.
+     */
+    public void removeNodeModules(Path appDir) throws IOException {
+        Path nm = appDir.resolve("node_modules");
+        if (!Files.exists(nm, LinkOption.NOFOLLOW_LINKS))
+            return;
+        if (isLink(nm)) {
+            Files.delete(nm);
+        } else {
+            FileUtils.deleteTree(nm);
+        }
+    }
+
+    // ---------- store ----------
+
+    /*
+     * make sure {depsDir}/{hash(lockfile)} holds a finished npm ci for projectDir's lockfile.
+     */
+    private String ensureInstalled(Path projectDir, Consumer<String> onLine) throws Exception {
+        Path lock = projectDir.resolve("package-lock.json");
+        String key = HashUtils.hashFile(lock, "SHA-256");
+        Path entry = depsDir.resolve(key);
+        if (Files.exists(entry.resolve(COMPLETE_MARKER))) {
+            touch(entry);
+            return key;
+        }
+        synchronized (installLocks.computeIfAbsent(key, k -> new Object())) {
+            if (Files.exists(entry.resolve(COMPLETE_MARKER))) {
+                return key;
+            }
+            Path tmp = depsDir.resolve(key + ".tmp-" + UUID.randomUUID());
+            try {
+                Files.createDirectories(tmp);
+                Files.copy(lock, tmp.resolve("package-lock.json"));
+                Files.copy(projectDir.resolve("package.json"), tmp.resolve("package.json"));
+                if (onLine != null)
+                    onLine.accept("installing shared node_modules " + key.substring(0, 12) + "...");
+                VueUtils.runNpmCiOrInstall(tmp.toFile(), true, onLine);
+                Files.writeString(tmp.resolve(COMPLETE_MARKER), key);
+                FileUtils.deleteTree(entry);
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                FileUtils.deleteTree(tmp);
+            }
+            evict(key);
+            return key;
+        }
+    }
+
+    private void evict(String keep) throws IOException {
+        synchronized (linkLock) {
+            List<Path> entries;
+            try (var stream = Files.list(depsDir)) {
+                entries = stream
+                        .filter(p -> Files.exists(p.resolve(COMPLETE_MARKER)))
+                        .filter(p -> !p.getFileName().toString().equals(keep))
+                        .filter(p -> !p.getFileName().toString().contains(".tmp-")) // another install, not moved yet
+                        .sorted(Comparator.comparing(NodeModulesStore::lastModified))
+                        .toList();
+            }
+            // keep (maxEntries - 1) others next to the one just installed; linked ones are kept regardless
+            int excess = entries.size() - (maxEntries - 1);
+            if (excess <= 0)
+                return;
+            Set<String> linked = linkedKeys();
+            for (Path entry : entries) {
+                if (excess <= 0)
+                    break;
+                if (linked.contains(entry.getFileName().toString()))
+                    continue;
+                LOG.infof("[NodeModulesStore] evict %s", entry.getFileName());
+                FileUtils.deleteTree(entry);
+                excess--;
+            }
+            if (excess > 0)
+                LOG.infof("[NodeModulesStore] %d entr(ies) over maxEntries=%d still linked by apps", excess,
+                        maxEntries);
+        }
+    }
+
+    /*
+     * store keys that some {workspace}/{app}/node_modules or {workspace}/.shared/{version}/node_modules points at.
+     */
+    private Set<String> linkedKeys() throws IOException {
+        Set<String> keys = new HashSet<>();
+        Path store = depsDir.toRealPath();
+        List<Path> dirs = new java.util.ArrayList<>();
+        Path ws = Path.of(workspace);
+        for (Path parent : List.of(ws, ws.resolve(".shared"))) {
+            if (!Files.isDirectory(parent))
+                continue;
+            try (var stream = Files.list(parent)) {
+                stream.filter(Files::isDirectory).forEach(dirs::add);
+            }
+        }
+        for (Path dir : dirs) {
+            Path nm = dir.resolve("node_modules");
+            try {
+                if (!Files.exists(nm, LinkOption.NOFOLLOW_LINKS) || !isLink(nm))
+                    continue;
+                Path real = nm.toRealPath();
+                if (real.startsWith(store) && real.getNameCount() > store.getNameCount())
+                    keys.add(real.getName(store.getNameCount()).toString());
+            } catch (IOException e) {
+                // dangling link (entry already gone) or app dir removed meanwhile
+            }
+        }
+        return keys;
+    }
+
+    // ---------- links ----------
+
+    private static boolean createLink(Path link, Path target) throws Exception {
+        try {
+            Files.createSymbolicLink(link, target.toAbsolutePath());
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            if (!Shell.isWindows()) {
+                LOG.warnf("[NodeModulesStore] symlink failed: %s", e.getMessage());
+                return false;
+            }
+        }
+        // Windows without symlink privilege: directory junctions need no admin rights
+        try {
+            Shell.runDirect(List.of("cmd", "/c", "mklink", "/J",
+                    link.toAbsolutePath().toString(), target.toAbsolutePath().toString()),
+                    Duration.ofSeconds(30), false);
+            return true;
+        } catch (RuntimeException e) {
+            LOG.warnf("[NodeModulesStore] junction failed: %s", e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean isLink(Path p) throws IOException {
+        // junctions are not reported as symbolic links, but their real path differs
+        if (Files.isSymbolicLink(p))
+            return true;
+        Path expected = p.toAbsolutePath().getParent().toRealPath().resolve(p.getFileName());
+        return !p.toRealPath().equals(expected);
+    }
+
+    private static FileTime lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void touch(Path p) {
+        try {
+            Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -4,72 +4,103 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
 
 import org.acme.evolv.entity.AiScenarioEntity;
 import org.acme.evolv.entity.AiScenarioRunEntity;
+import org.acme.evolv.factory.repository.AnalysisRunRepository;
+import org.acme.evolv.utils.MultipartBodyPublisher;
+import org.acme.evolv.utils.SingleFlight;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.net.URI;
 import java.net.http.*;
-import java.time.OffsetDateTime;
-import java.util.UUID;
+import java.nio.file.Path;
 
+/*
+ * Upstream calls for the scenario analyses. Nothing here runs inside a transaction:
+ * the run row is written afterwards by AnalysisRunRepository in a short one.
+ */
 @ApplicationScoped
 public class PdfAnalyzeService {
 
     @Inject
     ObjectMapper mapper;
 
-    @ConfigProperty(name = "ai.api.url")
-    String pdfApiUrl;
+    @Inject
+    AiApiClient ai;
+
+    @Inject
+    AnalysisRunRepository runs;
+
+    @Inject
+    AnalysisLimiter limiter;
+
+    // single-file upload endpoint (PdfResource /analyze)
+    @ConfigProperty(name = "ai.api.analyzePath", defaultValue = "pdf/analyze")
+    String analyzePath;
+
+    // the request body (file name + model) is the whole upstream input, so it is the key
+    private final SingleFlight<String, HttpResponse<String>> inFlight = new SingleFlight<>();
 
-    @Transactional
     public AiScenarioRunEntity analyzeAndSave(AiScenarioEntity scenario, String fileName, String model)
             throws Exception {
+        JsonNode root = analyzeByName(fileName, model, scenario.companyId);
+        return runs.saveDone(scenario.id, "", fileName, model,
+                root.path("result_markdown").asText(), root.path("prompt_used").asText());
+    }
+
+    /*
+     * analysis of a file the Python side already has, by name.
+     */
+    public JsonNode analyzeByName(String fileName, String model) throws Exception {
+        return analyzeByName(fileName, model, null);
+    }
+
+    /*
+     * companyId != null: the upstream call goes through the company's / model's bulkheads (AnalysisLimiter),
+     * taken only by the caller that makes it, not by the ones sharing its result.
+     */
+    private JsonNode analyzeByName(String fileName, String model, Object companyId) throws Exception {
         var payload = mapper.createObjectNode();
         if (model != null && !model.isBlank())
             payload.put("model", model);
         payload.put("file_name", fileName);
 
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create(pdfApiUrl))
+        var req = HttpRequest.newBuilder()
+                .uri(URI.create(ai.url("")))
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(payload.toString()))
-                .build();
+                .POST(HttpRequest.BodyPublishers.ofString(payload.toString()));
 
-        HttpClient client = HttpClient.newHttpClient();
-        HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> resp = inFlight.run(payload.toString(), ai.totalTimeout(), () -> {
+            if (companyId == null)
+                return ai.send(req, HttpResponse.BodyHandlers.ofString());
+            try (var permit = limiter.acquire(companyId, model)) {
+                return ai.send(req, HttpResponse.BodyHandlers.ofString());
+            }
+        });
         if (resp.statusCode() != 200) {
-            JsonNode root = mapper.readTree(resp.body());
-
-            AiScenarioRunEntity run = new AiScenarioRunEntity();
-            run.id = UUID.randomUUID();
-            run.scenario = scenario;
-            run.companyId = scenario.companyId;
-            run.fileName = fileName;
-            run.modelUsed = model;
-            run.resultMarkdown = root.path("result_markdown").asText();
-            run.promptUsed = root.path("prompt_used").asText();
-            run.status = "done";
-            run.createdAt = OffsetDateTime.now();
-            run.persist();
-            return run;
+            throw new RuntimeException("Python API call failture: " + resp.statusCode() + " → " + resp.body());
         }
+        return mapper.readTree(resp.body());
+    }
 
-        JsonNode root = mapper.readTree(resp.body());
-
-        AiScenarioRunEntity run = new AiScenarioRunEntity();
-        run.id = UUID.randomUUID();
-        run.scenario = scenario;
-        run.companyId = scenario.companyId;
-        run.fileName = fileName;
-        run.modelUsed = model;
-        run.resultMarkdown = root.path("result_markdown").asText();
-        run.promptUsed = root.path("prompt_used").asText();
-        run.status = "done";
-        run.createdAt = OffsetDateTime.now();
-        run.persist();
-        return run;
+    /*
+     * analysis of an uploaded PDF, streamed from its file.
+     */
+    public JsonNode analyzeUpload(String customPrompt, String model, String fileName, String contentType, Path file)
+            throws Exception {
+        // the upload is streamed from its temp file, not read into memory
+        var body = new MultipartBodyPublisher();
+        if (customPrompt != null && !customPrompt.isEmpty())
+            body.field("custom_prompt", customPrompt);
+        if (model != null && !model.isEmpty())
+            body.field("model", model);
+        body.file("file", fileName, contentType != null ? contentType : "application/pdf", file);
+
+        HttpResponse<String> response = ai.send(body.post(ai.url(analyzePath)), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Python API call failture: " + response.statusCode() + " → " + response.body());
+        }
+        return mapper.readTree(response.body());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,231 @@
+package org.acme.evolv.factory.services;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.entity.AppPortEntity;
+import org.acme.evolv.utils.PortUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Host ports for app containers, replacing PortUtils.pickPort (name hash, collisions).
+ * - app_port table is the source of truth, a BitSet over [start, end] is the in-memory index
+ * - reserve() hands out the next clear bit (rotating cursor) before the build is queued,
+ *   so two apps can never be promised the same port
+ * - release() on remove, releaseIfUnused() after a failed build; on startup, rows whose container is gone
+ *   are freed
+ */
+@ApplicationScoped
+public class PortAllocator {
+
+    private static final Logger LOG = Logger.getLogger(PortAllocator.class);
+
+    @Inject
+    DockerService docker;
+
+    @ConfigProperty(name = "factory.ports.start", defaultValue = "9000")
+    int start;
+
+    @ConfigProperty(name = "factory.ports.end", defaultValue = "16999")
+    int end;
+
+    private final BitSet used = new BitSet();
+    private final Map<String, Integer> byApp = new HashMap<>();
+    // apps reserved since startup; reconcile must not free them (their container may still be building)
+    private final Set<String> touched = new HashSet<>();
+    private int cursor;
+    private volatile boolean loaded;
+
+    /** fresh: app had no port before this call (give it back if the build never gets going). */
+    public record Reservation(int port, boolean fresh) {
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        load();
+        Thread.ofVirtual().name("port-reconcile").start(this::reconcile);
+    }
+
+    /*
+     * port for app: its current one, else preferred (if free), else the next free port.
+     * Throws IllegalStateException when preferred belongs to another app or the range is exhausted.
+     */
+    public synchronized Reservation reserve(String app, String companyId, Integer preferred) {
+        load();
+        touched.add(app);
+        Integer owned = byApp.get(app);
+        if (owned != null && (preferred == null || preferred.equals(owned)))
+            return new Reservation(owned, false);
+
+        int port;
+        if (preferred != null) {
+            if (preferred < start || preferred > end)
+                throw new IllegalStateException("port " + preferred + " outside " + start + "-" + end);
+            if (used.get(preferred - start))
+                throw new IllegalStateException("port " + preferred + " already allocated");
+            port = preferred;
+        } else {
+            port = nextFree();
+        }
+
+        if (owned != null)
+            forget(app, owned);
+        used.set(port - start);
+        byApp.put(app, port);
+        try {
+            store(app, companyId, port);
+        } catch (RuntimeException e) {
+            forget(app, port);
+            throw e;
+        }
+        LOG.infof("[PortAllocator] %s -> %d (reserved)", app, port);
+        return new Reservation(port, owned == null);
+    }
+
+    /*
+     * the container is up on its port.
+     */
+    public void activate(String app) {
+        QuarkusTransaction.requiringNew().run(() -> AppPortEntity.update(
+                "status = ?1, updatedAt = ?2 where appName = ?3", AppPortEntity.ACTIVE, LocalDateTime.now(), app));
+    }
+
+    public synchronized void release(String app) {
+        load();
+        Integer port = byApp.get(app);
+        drop(app);
+        if (port != null) {
+            forget(app, port);
+            LOG.infof("[PortAllocator] %s released %d", app, port);
+        }
+    }
+
+    /*
+     * after a failed build: free app's port unless a container (an earlier deploy) still holds it.
+     */
+    public void releaseIfUnused(String app) {
+        try {
+            if (docker.exists("vue-" + app))
+                return;
+        } catch (Exception e) {
+            LOG.warnf("[PortAllocator] cannot check vue-%s, keeping its port: %s", app, e.getMessage());
+            return;
+        }
+        release(app);
+    }
+
+    public synchronized Integer portOf(String app) {
+        load();
+        return byApp.get(app);
+    }
+
+    public synchronized Map<String, Object> stats() {
+        return Map.of("range", start + "-" + end, "allocated", used.cardinality());
+    }
+
+    // ---------- internals ----------
+
+    /*
+     * next clear bit after the cursor, wrapping once; ports bound by something else are skipped.
+     */
+    private int nextFree() {
+        int span = end - start + 1;
+        for (int tried = 0; tried < span; ) {
+            int bit = used.nextClearBit(cursor);
+            if (bit >= span) {
+                tried += span - cursor;
+                cursor = 0;
+                continue;
+            }
+            tried += bit - cursor + 1;
+            cursor = (bit + 1) % span;
+            int port = start + bit;
+            if (PortUtils.isTcpPortAvailable(port))
+                return port;
+            LOG.debugf("[PortAllocator] %d busy outside the registry, skipping", port);
+        }
+        throw new IllegalStateException("no free port in " + start + "-" + end);
+    }
+
+    private void forget(String app, int port) {
+        used.clear(port - start);
+        byApp.remove(app, port);
+    }
+
+    private synchronized void load() {
+        if (loaded)
+            return;
+        List<AppPortEntity> rows = rows();
+        for (AppPortEntity row : rows) {
+            if (row.port < start || row.port > end) {
+                LOG.warnf("[PortAllocator] %s has port %d outside %d-%d, ignored", row.appName, row.port, start, end);
+                continue;
+            }
+            used.set(row.port - start);
+            byApp.put(row.appName, row.port);
+        }
+        loaded = true;
+        LOG.infof("[PortAllocator] %d port(s) allocated in %d-%d", rows.size(), start, end);
+    }
+
+    // ---------- app_port rows, each in its own transaction ----------
+
+    List<AppPortEntity> rows() {
+        return QuarkusTransaction.requiringNew().call(AppPortEntity::<AppPortEntity>listAll);
+    }
+
+    /* app's row (status reserved), replacing any earlier one */
+    void store(String app, String companyId, int port) {
+        QuarkusTransaction.requiringNew().run(() -> {
+            AppPortEntity.delete("appName", app);
+            AppPortEntity row = new AppPortEntity();
+            row.port = port;
+            row.appName = app;
+            row.companyId = companyId;
+            row.status = AppPortEntity.RESERVED;
+            row.persistAndFlush();
+        });
+    }
+
+    void drop(String app) {
+        QuarkusTransaction.requiringNew().run(() -> AppPortEntity.delete("appName", app));
+    }
+
+    /*
+     * free ports whose container no longer exists (failed builds, containers removed by hand).
+     */
+    private void reconcile() {
+        Map<String, Integer> snapshot;
+        synchronized (this) {
+            snapshot = new HashMap<>(byApp);
+        }
+        int freed = 0;
+        for (var e : snapshot.entrySet()) {
+            try {
+                if (!docker.exists("vue-" + e.getKey())) {
+                    synchronized (this) {
+                        if (touched.contains(e.getKey()) || !e.getValue().equals(byApp.get(e.getKey())))
+                            continue;
+                        release(e.getKey());
+                    }
+                    freed++;
+                }
+            } catch (Exception ex) {
+                LOG.warnf("[PortAllocator] reconcile %s failed: %s", e.getKey(), ex.getMessage());
+            }
+        }
+        LOG.infof("[PortAllocator] reconcile done, %d stale port(s) freed", freed);
+    }
+}
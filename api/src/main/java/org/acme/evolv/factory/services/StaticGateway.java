@@ -0,0 +1,380 @@
+package org.acme.evolv.factory.services;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+
+import org.acme.evolv.utils.FileUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * factory.hosting=gateway: Quarkus serves every tenant's dist itself, no nginx container / host port per tenant.
+ * - routes: /sites/{app}/... always; {app}.{factory.gateway.domain} by Host header when a domain is set
+ * - published dists are immutable releases under {workspace}/.sites/{app}/{id}; publish() switches the
+ *   live release in memory, so requests never see a half-copied tree; the previous release stays on disk
+ *   until the next publish, for requests (sendfile, cached paths) still reading it
+ * - large files go out with sendfile (zero-copy), small hot ones from an LRU byte cache
+ * - precompressed dist files (foo.js.gz, see Precompress) go out as Content-Encoding: gzip to clients that accept it
+ * - SPA fallback to index.html; /assets/* (hashed by vite) cached as immutable
+ */
+@ApplicationScoped
+public class StaticGateway {
+
+    private static final Logger LOG = Logger.getLogger(StaticGateway.class);
+
+    private static final String COMPLETE_MARKER = ".complete";
+    private static final String PATH_PREFIX = "/sites/";
+
+    @ConfigProperty(name = "factory.workspace", defaultValue = "C:\\\\vue-factory")
+    String workspace;
+
+    @ConfigProperty(name = "factory.hosting", defaultValue = "container")
+    String hosting;
+
+    // tenants answer on {app}.{domain} when set (wildcard DNS), else only under /sites/{app}/
+    @ConfigProperty(name = "factory.gateway.domain")
+    Optional<String> domainCfg;
+
+    private String domain;
+
+    @ConfigProperty(name = "factory.gateway.baseUrl", defaultValue = "http://localhost:8080")
+    String baseUrl;
+
+    @ConfigProperty(name = "factory.gateway.cacheMaxBytes", defaultValue = "67108864")
+    long cacheMaxBytes;
+
+    @ConfigProperty(name = "factory.gateway.cacheFileMaxBytes", defaultValue = "262144")
+    long cacheFileMaxBytes;
+
+    private Path sitesDir;
+
+    // app -> live release dir
+    private final Map<String, Path> live = new ConcurrentHashMap<>();
+
+    // release file -> bytes, access ordered (LRU), bounded by cacheMaxBytes
+    private final LinkedHashMap<Path, Cached> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedBytes;
+
+    // vary: the file has a .gz variant, so the response depends on Accept-Encoding
+    private record Cached(Buffer data, String contentType, boolean vary) {
+    }
+
+    /**
+     * A request resolved to a file of the live release (data is set when it came from / went to the cache).
+     * gzip: file is the .gz variant of the requested one.
+     */
+    private record Asset(Path file, String rel, String contentType, Buffer data, boolean gzip, boolean vary) {
+    }
+
+    @PostConstruct
+    void init() {
+        domain = domainCfg.orElse("").trim();
+        sitesDir = Path.of(workspace, ".sites");
+        if (!enabled())
+            return;
+        try {
+            Files.createDirectories(sitesDir);
+            try (var apps = Files.list(sitesDir)) {
+                for (Path app : apps.filter(Files::isDirectory).toList()) {
+                    Path release = latestRelease(app);
+                    if (release != null)
+                        live.put(app.getFileName().toString(), release);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warnf("static gateway: cannot scan %s: %s", sitesDir, e.getMessage());
+        }
+        LOG.infof("static gateway: %d site(s) from %s, domain=%s", live.size(), sitesDir,
+                domain.isBlank() ? "-" : domain);
+    }
+
+    public boolean enabled() {
+        return "gateway".equalsIgnoreCase(hosting);
+    }
+
+    void routes(@Observes Router router) {
+        if (!enabled())
+            return;
+        if (!domain.isBlank()) {
+            // before the REST routes, so {app}.{domain}/anything is the tenant's site
+            router.route().order(-100).handler(ctx -> {
+                String app = appFromHost(ctx.request().getHeader("Host"));
+                if (app == null) {
+                    ctx.next();
+                    return;
+                }
+                serve(ctx, app, ctx.normalizedPath());
+            });
+        }
+        router.route(PATH_PREFIX + "*").handler(ctx -> {
+            String rest = ctx.normalizedPath().substring(PATH_PREFIX.length());
+            int slash = rest.indexOf('/');
+            if (slash < 0) {
+                // vite builds with a relative base, so the site root needs its trailing slash
+                ctx.response().setStatusCode(301).putHeader("Location", PATH_PREFIX + rest + "/").end();
+                return;
+            }
+            serve(ctx, rest.substring(0, slash), rest.substring(slash));
+        });
+    }
+
+    /*
+     * make dist the live content of app: copy into a fresh release, switch, drop the ones before the previous.
+     */
+    public synchronized void publish(String app, Path dist) throws IOException {
+        Path appDir = sitesDir.resolve(app);
+        Path release = appDir.resolve(Long.toString(System.currentTimeMillis(), 36));
+        FileUtils.copyTree(dist, release);
+        Files.writeString(release.resolve(COMPLETE_MARKER), app);
+
+        Path previous = live.put(app, release);
+        evict(previous);
+        try (var releases = Files.list(appDir)) {
+            for (Path old : releases.filter(p -> !p.equals(release) && !p.equals(previous)).toList()) {
+                FileUtils.deleteTree(old);
+            }
+        }
+        LOG.infof("static gateway: %s -> %s", app, release.getFileName());
+    }
+
+    /*
+     * stop serving app and delete its releases (the tenant was removed). false if it was not published.
+     */
+    public synchronized boolean unpublish(String app) throws IOException {
+        Path release = live.remove(app);
+        evict(release);
+        Path appDir = sitesDir.resolve(app);
+        boolean existed = release != null || Files.exists(appDir);
+        FileUtils.deleteTree(appDir);
+        if (existed)
+            LOG.infof("static gateway: %s unpublished", app);
+        return existed;
+    }
+
+    public String url(String app) {
+        if (!domain.isBlank()) {
+            String scheme = baseUrl.startsWith("https") ? "https://" : "http://";
+            return scheme + app + "." + domain + "/";
+        }
+        return baseUrl + PATH_PREFIX + app + "/";
+    }
+
+    // ---------- serving ----------
+
+    private void serve(RoutingContext ctx, String app, String path) {
+        HttpMethod method = ctx.request().method();
+        if (!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method)) {
+            ctx.response().setStatusCode(405).putHeader("Allow", "GET, HEAD").end();
+            return;
+        }
+        Path release = live.get(app);
+        if (release == null) {
+            ctx.response().setStatusCode(404).end();
+            return;
+        }
+        String rel = path.startsWith("/") ? path.substring(1) : path;
+        boolean gzipOk = acceptsGzip(ctx.request().getHeader("Accept-Encoding"));
+
+        Asset hot = fromCache(release, rel, gzipOk);
+        if (hot != null) {
+            send(ctx, hot);
+            return;
+        }
+        // stat / small reads off the event loop
+        ctx.vertx().executeBlocking(() -> resolve(release, rel, gzipOk))
+                .onSuccess(asset -> {
+                    if (asset == null) {
+                        ctx.response().setStatusCode(404).end();
+                    } else {
+                        send(ctx, asset);
+                    }
+                })
+                .onFailure(ctx::fail);
+    }
+
+    private void send(RoutingContext ctx, Asset asset) {
+        var resp = ctx.response();
+        resp.putHeader("Content-Type", asset.contentType());
+        if (asset.gzip())
+            resp.putHeader("Content-Encoding", "gzip");
+        if (asset.vary())
+            resp.putHeader("Vary", "Accept-Encoding");
+        resp.putHeader("Cache-Control", asset.rel().startsWith("assets/")
+                ? "public, max-age=31536000, immutable"
+                : "no-cache");
+        if (HttpMethod.HEAD.equals(ctx.request().method())) {
+            resp.end();
+        } else if (asset.data() != null) {
+            resp.end(asset.data());
+        } else {
+            resp.sendFile(asset.file().toString());
+        }
+    }
+
+    /*
+     * a cached plain file only answers a gzip-capable client when there is no .gz variant to prefer.
+     */
+    private Asset fromCache(Path release, String rel, boolean gzipOk) {
+        Path file = release.resolve(rel.isEmpty() ? "index.html" : rel).normalize();
+        synchronized (cache) {
+            if (gzipOk) {
+                Path gz = gzipOf(file);
+                Cached c = cache.get(gz);
+                if (c != null)
+                    return new Asset(gz, rel, c.contentType(), c.data(), true, true);
+            }
+            Cached c = cache.get(file);
+            if (c == null || (gzipOk && c.vary()))
+                return null;
+            return new Asset(file, rel, c.contentType(), c.data(), false, c.vary());
+        }
+    }
+
+    /*
+     * release file for rel (index.html for the root and for unknown extension-less routes), or null.
+     * Its .gz variant when there is one and the client accepts gzip.
+     */
+    private Asset resolve(Path release, String rel, boolean gzipOk) throws IOException {
+        Path file = release.resolve(rel).normalize();
+        if (!file.startsWith(release))
+            return null;
+        if (rel.isEmpty() || Files.isDirectory(file)) {
+            file = file.resolve("index.html");
+        } else if (!Files.isRegularFile(file)) {
+            String last = rel.substring(rel.lastIndexOf('/') + 1);
+            if (last.contains("."))
+                return null; // a missing asset, not a client-side route
+            file = release.resolve("index.html");
+        }
+        if (!Files.isRegularFile(file))
+            return null;
+
+        String type = contentType(file.getFileName().toString());
+        Path gz = gzipOf(file);
+        boolean vary = Files.isRegularFile(gz);
+        boolean gzip = vary && gzipOk;
+        if (gzip)
+            file = gz;
+        long size = Files.size(file);
+        if (size > cacheFileMaxBytes)
+            return new Asset(file, rel, type, null, gzip, vary);
+
+        Buffer data = Buffer.buffer(Files.readAllBytes(file));
+        synchronized (cache) {
+            Cached prev = cache.put(file, new Cached(data, type, vary));
+            if (prev != null)
+                cachedBytes -= prev.data().length();
+            cachedBytes += data.length();
+            var it = cache.entrySet().iterator();
+            while (cachedBytes > cacheMaxBytes && it.hasNext()) {
+                cachedBytes -= it.next().getValue().data().length();
+                it.remove();
+            }
+        }
+        return new Asset(file, rel, type, data, gzip, vary);
+    }
+
+    private void evict(Path release) {
+        if (release == null)
+            return;
+        synchronized (cache) {
+            var it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                var e = it.next();
+                if (e.getKey().startsWith(release)) {
+                    cachedBytes -= e.getValue().data().length();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    // ---------- helpers ----------
+
+    /* true when tenants answer on {app}.{factory.gateway.domain} */
+    boolean routesByHost() {
+        return !domain.isBlank();
+    }
+
+    String appFromHost(String host) {
+        if (host == null)
+            return null;
+        int colon = host.indexOf(':');
+        String h = (colon >= 0 ? host.substring(0, colon) : host).toLowerCase(Locale.ROOT);
+        String suffix = "." + domain.toLowerCase(Locale.ROOT);
+        if (!h.endsWith(suffix))
+            return null;
+        String app = h.substring(0, h.length() - suffix.length());
+        return app.isEmpty() || app.contains(".") ? null : app;
+    }
+
+    private static Path gzipOf(Path file) {
+        return file.resolveSibling(file.getFileName() + ".gz");
+    }
+
+    /* gzip listed in Accept-Encoding, and not with q=0 */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if (!parts[0].trim().equalsIgnoreCase("gzip"))
+                continue;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static Path latestRelease(Path appDir) throws IOException {
+        try (var releases = Files.list(appDir)) {
+            return releases
+                    .filter(p -> Files.exists(p.resolve(COMPLETE_MARKER)))
+                    .max(Comparator.comparing((Path p) -> p.getFileName().toString().length())
+                            .thenComparing(p -> p.getFileName().toString()))
+                    .orElse(null);
+        }
+    }
+
+    private static String contentType(String name) {
+        String ext = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        return switch (ext) {
+            case "html" -> "text/html; charset=utf-8";
+            case "js", "mjs" -> "text/javascript; charset=utf-8";
+            case "css" -> "text/css; charset=utf-8";
+            case "json", "map" -> "application/json";
+            case "svg" -> "image/svg+xml";
+            case "png" -> "image/png";
+            case "jpg", "jpeg" -> "image/jpeg";
+            case "gif" -> "image/gif";
+            case "webp" -> "image/webp";
+            case "ico" -> "image/x-icon";
+            case "woff" -> "font/woff";
+            case "woff2" -> "font/woff2";
+            case "ttf" -> "font/ttf";
+            case "txt" -> "text/plain; charset=utf-8";
+            case "wasm" -> "application/wasm";
+            default -> "application/octet-stream";
+        };
+    }
+}
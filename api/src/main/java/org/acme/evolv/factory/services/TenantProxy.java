@@ -0,0 +1,355 @@
+package org.acme.evolv.factory.services;
+
+import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import org.acme.evolv.factory.docker.ContainerRegistry;
+import org.acme.evolv.utils.SingleFlight;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * factory.hosting=container with factory.idle.enabled: tenant traffic comes through this server,
+ * so idle nginx containers can be stopped and started again on demand (scale to zero).
+ * - routes: /sites/{app}/... and {app}.{factory.gateway.domain}, the static gateway's URLs,
+ *   forwarded to the container's host port
+ * - idle: a running container without requests for factory.idle.after is docker-stopped; only tenants
+ *   whose traffic came through here since startup, as older URLs (http://localhost:{port}) bypass the proxy
+ * - wake: the first request to a stopped tenant is held while DockerService.ensureRunning starts it and
+ *   nginx answers; requests arriving meanwhile share that wake. 503 + Retry-After after factory.idle.wakeTimeout
+ */
+@ApplicationScoped
+public class TenantProxy {
+
+    private static final Logger LOG = Logger.getLogger(TenantProxy.class);
+
+    private static final String PATH_PREFIX = "/sites/";
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-authenticate",
+            "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host");
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    DockerService docker;
+
+    @Inject
+    PortAllocator ports;
+
+    @Inject
+    ContainerRegistry registry;
+
+    @Inject
+    StaticGateway gateway;
+
+    @ConfigProperty(name = "factory.hosting", defaultValue = "container")
+    String hosting;
+
+    @ConfigProperty(name = "factory.idle.enabled", defaultValue = "false")
+    boolean idleEnabled;
+
+    @ConfigProperty(name = "factory.idle.after", defaultValue = "PT30M")
+    Duration idleAfter;
+
+    @ConfigProperty(name = "factory.idle.checkEvery", defaultValue = "PT1M")
+    Duration checkEvery;
+
+    @ConfigProperty(name = "factory.idle.wakeTimeout", defaultValue = "PT20S")
+    Duration wakeTimeout;
+
+    // where the containers' host ports are reachable from this server
+    @ConfigProperty(name = "factory.proxy.upstreamHost", defaultValue = "127.0.0.1")
+    String upstreamHost;
+
+    @ConfigProperty(name = "factory.proxy.maxConnectionsPerTenant", defaultValue = "16")
+    int maxConnections;
+
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+    private final Set<String> stopping = ConcurrentHashMap.newKeySet();
+    private final SingleFlight<String, Integer> wakes = new SingleFlight<>();
+    private final AtomicLong hibernated = new AtomicLong();
+    private final AtomicLong woken = new AtomicLong();
+
+    private final java.net.http.HttpClient probe = java.net.http.HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    private HttpClient client;
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    void init() {
+        if (!enabled())
+            return;
+        client = vertx.createHttpClient(new HttpClientOptions()
+                .setMaxPoolSize(maxConnections)
+                .setKeepAlive(true)
+                .setConnectTimeout(5000));
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled())
+            return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tenant-idle");
+            t.setDaemon(true);
+            return t;
+        });
+        long every = Math.max(1000, checkEvery.toMillis());
+        sweeper.scheduleWithFixedDelay(this::sweep, every, every, TimeUnit.MILLISECONDS);
+        LOG.infof("tenant proxy: idle containers stopped after %s", idleAfter);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (sweeper != null)
+            sweeper.shutdownNow();
+        if (client != null)
+            client.close();
+    }
+
+    public boolean enabled() {
+        return idleEnabled && "container".equalsIgnoreCase(hosting);
+    }
+
+    /*
+     * public URL of app through this proxy (same shape as the static gateway's).
+     */
+    public String url(String app) {
+        return gateway.url(app);
+    }
+
+    /*
+     * count as activity (requests, deploys), so app is not stopped under them.
+     */
+    public void touch(String app) {
+        lastSeen.put(app, System.currentTimeMillis());
+    }
+
+    public Map<String, Object> stats() {
+        int inFlight = 0;
+        for (AtomicInteger n : active.values())
+            inFlight += n.get();
+        return Map.of(
+                "enabled", enabled(),
+                "idleAfter", idleAfter.toString(),
+                "tracked", lastSeen.size(),
+                "inFlight", inFlight,
+                "hibernated", hibernated.get(),
+                "woken", woken.get());
+    }
+
+    // ---------- routing ----------
+
+    void routes(@Observes Router router) {
+        if (!enabled())
+            return;
+        if (gateway.routesByHost()) {
+            // before the REST routes, so {app}.{domain}/anything is the tenant's site
+            router.route().order(-100).handler(ctx -> {
+                String app = gateway.appFromHost(ctx.request().getHeader("Host"));
+                if (app == null) {
+                    ctx.next();
+                    return;
+                }
+                proxy(ctx, app, "", ctx.request().uri());
+            });
+        }
+        router.route(PATH_PREFIX + "*").handler(ctx -> {
+            String rest = ctx.normalizedPath().substring(PATH_PREFIX.length());
+            int slash = rest.indexOf('/');
+            if (slash < 0) {
+                // vite builds with a relative base, so the site root needs its trailing slash
+                ctx.response().setStatusCode(301).putHeader("Location", PATH_PREFIX + rest + "/").end();
+                return;
+            }
+            String app = rest.substring(0, slash);
+            String query = ctx.request().query();
+            proxy(ctx, app, PATH_PREFIX + app, rest.substring(slash) + (query == null ? "" : "?" + query));
+        });
+    }
+
+    private void proxy(RoutingContext ctx, String app, String prefix, String uri) {
+        Integer port = ports.portOf(app);
+        if (port == null) {
+            ctx.response().setStatusCode(404).end();
+            return;
+        }
+        AtomicInteger n = active.computeIfAbsent(app, k -> new AtomicInteger());
+        n.incrementAndGet(); // before looking at stopping, see sweep()
+        touch(app);
+
+        ContainerRegistry.Container c = registry.get("vue-" + app);
+        if (registry.ready() && c != null && c.running() && !stopping.contains(app)) {
+            forward(ctx, app, prefix, port, uri, n);
+            return;
+        }
+        ctx.request().pause();
+        ctx.vertx().executeBlocking(() -> wake(app, port), false)
+                .onSuccess(p -> forward(ctx, app, prefix, p, uri, n))
+                .onFailure(e -> {
+                    done(app, n);
+                    LOG.warnf("tenant proxy: cannot wake %s: %s", app, e.getMessage());
+                    if (!ctx.response().ended())
+                        ctx.response().setStatusCode(503).putHeader("Retry-After", "5").end();
+                });
+    }
+
+    private void forward(RoutingContext ctx, String app, String prefix, int port, String uri, AtomicInteger n) {
+        HttpServerRequest req = ctx.request();
+        client.request(new RequestOptions()
+                .setHost(upstreamHost)
+                .setPort(port)
+                .setMethod(req.method())
+                .setURI(uri))
+                .onSuccess(out -> {
+                    for (var h : req.headers()) {
+                        if (!HOP_BY_HOP.contains(h.getKey().toLowerCase(Locale.ROOT)))
+                            out.headers().add(h.getKey(), h.getValue());
+                    }
+                    if (req.remoteAddress() != null)
+                        out.putHeader("X-Forwarded-For", req.remoteAddress().host());
+                    String host = req.getHeader("Host");
+                    if (host != null)
+                        out.putHeader("X-Forwarded-Host", host);
+                    out.putHeader("X-Forwarded-Proto", req.scheme());
+
+                    out.send(req).onSuccess(in -> {
+                        HttpServerResponse res = ctx.response();
+                        res.setStatusCode(in.statusCode());
+                        String origin = "http://" + upstreamHost + ":" + port;
+                        for (var h : in.headers()) {
+                            String name = h.getKey();
+                            if (HOP_BY_HOP.contains(name.toLowerCase(Locale.ROOT)))
+                                continue;
+                            String value = h.getValue();
+                            // nginx redirects name its own host port
+                            if (name.equalsIgnoreCase("Location") && value.startsWith(origin))
+                                value = prefix + value.substring(origin.length());
+                            res.headers().add(name, value);
+                        }
+                        if (!in.headers().contains("Content-Length"))
+                            res.setChunked(true);
+                        in.pipeTo(res).onComplete(r -> done(app, n));
+                    }).onFailure(e -> badGateway(ctx, app, n, e));
+                })
+                .onFailure(e -> badGateway(ctx, app, n, e));
+    }
+
+    private void badGateway(RoutingContext ctx, String app, AtomicInteger n, Throwable e) {
+        done(app, n);
+        LOG.debugf("tenant proxy: %s: %s", app, e.getMessage());
+        if (!ctx.response().ended())
+            ctx.response().setStatusCode(502).end();
+    }
+
+    private void done(String app, AtomicInteger n) {
+        n.decrementAndGet();
+        touch(app);
+    }
+
+    // ---------- wake / hibernate ----------
+
+    /*
+     * make sure vue-{app} runs and nginx answers; one wake per app at a time (worker thread).
+     */
+    private Integer wake(String app, int port) throws Exception {
+        return wakes.run(app, () -> {
+            long deadline = System.nanoTime() + wakeTimeout.toNanos();
+            while (stopping.contains(app)) {
+                if (System.nanoTime() > deadline)
+                    throw new IOException("still stopping");
+                Thread.sleep(50);
+            }
+            String container = "vue-" + app;
+            if (docker.isRunning(container))
+                return port;
+            long started = System.currentTimeMillis();
+            docker.ensureRunning(container);
+            waitReady(port, deadline);
+            woken.incrementAndGet();
+            LOG.infof("tenant proxy: woke %s in %d ms", container, System.currentTimeMillis() - started);
+            return port;
+        });
+    }
+
+    private void waitReady(int port, long deadline) throws Exception {
+        HttpRequest head = HttpRequest.newBuilder(URI.create("http://" + upstreamHost + ":" + port + "/"))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(1))
+                .build();
+        while (true) {
+            try {
+                probe.send(head, HttpResponse.BodyHandlers.discarding());
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline)
+                    throw new IOException("not answering on port " + port + " after " + wakeTimeout);
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /*
+     * stop running tenant containers idle for idleAfter. Needs the registry in sync (no inspect per tenant).
+     */
+    private void sweep() {
+        if (!registry.ready())
+            return;
+        long now = System.currentTimeMillis();
+        for (ContainerRegistry.Container c : registry.list("vue-")) {
+            if (!c.running())
+                continue;
+            String app = c.name().substring("vue-".length());
+            if (ports.portOf(app) == null)
+                continue; // not routed through here
+            if (!active.containsKey(app))
+                continue; // no request through the proxy yet: its traffic may go straight to the port
+            long seen = lastSeen.getOrDefault(app, now);
+            if (now - seen < idleAfter.toMillis())
+                continue;
+
+            stopping.add(app);
+            try {
+                // a request counted itself in before we marked stopping: leave it running
+                AtomicInteger n = active.get(app);
+                if (n != null && n.get() > 0)
+                    continue;
+                docker.stop(c.name());
+                hibernated.incrementAndGet();
+                LOG.infof("tenant proxy: %s idle for %d min, stopped", c.name(), (now - seen) / 60_000);
+            } catch (Exception e) {
+                LOG.warnf("tenant proxy: stop %s failed: %s", c.name(), e.getMessage());
+            } finally {
+                stopping.remove(app);
+            }
+        }
+    }
+}
@@ -4,7 +4,9 @@ import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
+import org.acme.evolv.utils.FileUtils;
 import org.acme.evolv.utils.LogSseHub;
+import org.acme.evolv.utils.Precompress;
 import org.acme.evolv.utils.VueUtils;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
@@ -12,6 +14,7 @@ import org.jboss.logging.Logger;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 @ApplicationScoped
 public class VueFactoryService {
@@ -27,6 +30,24 @@ public class VueFactoryService {
     @Inject
     DockerService docker;
 
+    @Inject
+    BuildCacheService cache;
+
+    @Inject
+    NodeModulesStore deps;
+
+    @Inject
+    DeployManifestService manifests;
+
+    @Inject
+    StaticGateway gateway;
+
+    @Inject
+    TenantProxy proxy;
+
+    @Inject
+    LayeredImages images;
+
     @ConfigProperty(name = "factory.workspace", defaultValue = "C:\\\\vue-factory")
     String workspace;
 
@@ -36,10 +57,28 @@ public class VueFactoryService {
     @ConfigProperty(name = "factory.templateVuePath", defaultValue = "E:\\\\lwpw\\\\EvolvAI\\\\sdk-ui\\\\chat-app")
     String templateVuePath;
 
+    // build   = patch + npm build per tenant
+    // runtime = one shared build per template version, tenant values in config.js / theme.css
+    @ConfigProperty(name = "factory.deployMode", defaultValue = "build")
+    String deployMode;
+
+    // dist/*.gz written at build time, served by nginx gzip_static (containers) or StaticGateway (gateway hosting)
+    @ConfigProperty(name = "factory.precompress.enabled", defaultValue = "true")
+    boolean precompress;
+
+    @ConfigProperty(name = "factory.precompress.minBytes", defaultValue = "1024")
+    long precompressMinBytes;
+
+    // vite base for gateway hosting: relative, so the same dist works under /sites/{app}/ and on {app}.{domain}
+    private static final List<String> GATEWAY_BUILD_ARGS = List.of("--base=./");
+
+    private final Object sharedBuildLock = new Object();
+
 
     @PostConstruct
     void init() {
-        LOG.infof("workspace=%s, registryPrefix=%s", workspace, registryPrefix);
+        LOG.infof("workspace=%s, registryPrefix=%s, deployMode=%s, hosting=%s", workspace, registryPrefix, deployMode,
+                gateway.enabled() ? "gateway" : "container");
     }
 
     public record Result(String image, String container, String url, String logs) {
@@ -76,15 +115,17 @@ public class VueFactoryService {
 
             log.append("npm run build:\n")
                     .append(VueUtils.runNpmRunBuild(appDir, out)).append("\n");
+            precompress(appDir.toPath().resolve("dist"), log);
 
             // 4) docker build / run
             String image = registryPrefix + safe + ":latest";
             String container = "vue-" + safe;
 
             log.append("docker build:\n")
-                    .append(docker.build(appDir, image, streamId, hub)).append("\n");
+                    .append(buildImage(appDir, null, image, streamId)).append("\n");
 
             String rmOut = docker.rmForce(container, streamId, hub);
+            manifests.delete(container);
             if (rmOut != null && !rmOut.isBlank()) {
                 log.append("docker rm (old):\n").append(rmOut).append("\n");
             }
@@ -92,7 +133,7 @@ public class VueFactoryService {
             log.append("docker run:\n")
                     .append(docker.runDetached(container, port, image, streamId, hub)).append("\n");
 
-            String url = "http://localhost:" + port;
+            String url = containerUrl(safe, port);
             return new Result(image, container, url, log.toString());
         } finally {
             if (streamId != null && !streamId.isBlank()) {
@@ -120,76 +161,95 @@ public class VueFactoryService {
         var out = streamer(streamId);
 
         try {
-            // Step 1: copy + patch
-            vue.copyTemplate(Path.of(templateVuePath), appDir.toPath(), true);
-            log.append("copy template -> ").append(appDir.getAbsolutePath()).append("\n");
-            if (streamId != null && !streamId.isBlank())
-                hub.send(streamId, "copy template done");
-
-            vue.patchTsx(appDir.toPath(), companyId);
-            vue.patchCss(appDir.toPath(), companyId);
-
-            log.append("patch ChatComponent.tsx\n");
-            if (streamId != null && !streamId.isBlank())
-                hub.send(streamId, "patch ChatComponent.tsx done");
-
-            // Step 1.5: ensure Dockerfile & nginx.conf
-            Path dockerfilePath = appDir.toPath().resolve("Dockerfile");
-            Path nginxConfPath = appDir.toPath().resolve("nginx.conf");
-            if (!Files.exists(dockerfilePath)) {
-                Files.writeString(dockerfilePath, dockerfile());
-                log.append("write default Dockerfile\n");
-            }
-            if (!Files.exists(nginxConfPath)) {
-                Files.writeString(nginxConfPath, nginxConf());
-                log.append("write default nginx.conf\n");
+            // Step 0: build cache lookup (template tree + company config)
+            boolean runtime = isRuntimeMode();
+            String cacheKey = !runtime && cache.enabled()
+                    ? cache.key(Path.of(templateVuePath), companyId, recipe())
+                    : null;
+            Path cachedDist = cacheKey == null ? null : cache.lookupDist(cacheKey);
+            Path appDist = appDir.toPath().resolve("dist");
+            Path shared = null; // tenant-agnostic part of dist (runtime mode), base of a layered image
+
+            if (runtime) {
+                // shared template build + this tenant's config files
+                shared = sharedDist(log, streamId, out);
+                FileUtils.deleteTree(appDist);
+                FileUtils.copyTree(shared, appDist);
+                vue.writeRuntimeConfig(appDist, companyId);
+                log.append("runtime config written for ").append(companyId).append("\n");
+                if (streamId != null && !streamId.isBlank())
+                    hub.send(streamId, "shared build reused, runtime config written");
+            } else if (cachedDist != null) {
+                cache.restoreDist(cachedDist, appDist);
+                log.append("build cache hit: ").append(cacheKey).append("\n");
+                if (streamId != null && !streamId.isBlank())
+                    hub.send(streamId, "build cache hit, skip npm build");
+            } else {
+                buildFromTemplate(companyId, false, appDir, log, streamId, out);
+                precompress(appDist, log);
+                if (cacheKey != null)
+                    cache.store(cacheKey, appDist);
             }
 
-            // Step 1.75: relax ts checks
-            vue.relaxTypeChecks(appDir.toPath());
-            log.append("relax ts checks\n");
-
-            // Step 2: npm ci / install + build (real-time output)
-            boolean useCi = appDir.toPath().resolve("package-lock.json").toFile().exists();
-            log.append("npm ").append(useCi ? "ci" : "install").append(":\n")
-                    .append(VueUtils.runNpmCiOrInstall(appDir, useCi, out)).append("\n");
-
-            log.append("npm run build:\n")
-                    .append(VueUtils.runNpmRunBuild(appDir, out)).append("\n");
+            // Step 3 (gateway hosting): publish dist, no image / container / port
+            if (gateway.enabled()) {
+                gateway.publish(safe, appDist);
+                String url = gateway.url(safe);
+                log.append("published to static gateway: ").append(url).append("\n");
+                if (streamId != null && !streamId.isBlank())
+                    hub.send(streamId, "published " + url);
+                return new Result(null, null, url, log.toString());
+            }
 
             // Step 3: docker build / run（if exists, just copy dist）
             String image = registryPrefix + safe + ":latest";
             String container = "vue-" + safe;
 
+            proxy.touch(safe); // not hibernated while we deploy
             if (docker.exists(container)) {
                 docker.ensureRunning(container);
                 log.append("container exists: ").append(container).append("\n");
                 if (streamId != null && !streamId.isBlank())
                     hub.send(streamId, "container exists, updating static files...");
 
-                // clear /usr/share/nginx/html + copy dist/* to it  
-                docker.execSafe(container, "mkdir -p /usr/share/nginx/html", streamId, hub);
-                docker.execSafe(container, "find /usr/share/nginx/html -mindepth 1 -exec rm -rf {} + || true", streamId,
-                        hub);
-
-                docker.execSafe(container, "rm -rf /tmp/distcopy && mkdir -p /tmp/distcopy", streamId, hub);
-                docker.cpToContainer(appDir.toPath().resolve("dist"), container, "/tmp/distcopy", streamId, hub);
-                docker.execSafe(container, "cp -a /tmp/distcopy/dist/. /usr/share/nginx/html/ && rm -rf /tmp/distcopy",
-                        streamId, hub);
-
-                log.append("updated /usr/share/nginx/html from dist\n");
-                return new Result(image, container, "http://localhost:" + port, log.toString());
+                // stream dist/ (or just what changed since the last deploy) into the container and swap it in
+                var before = manifests.load(container);
+                var after = manifests.compute(appDist);
+                manifests.delete(container);
+                if (before == null) {
+                    docker.deployDist(appDist, container, streamId, hub);
+                    log.append("updated /usr/share/nginx/html from dist (full)\n");
+                } else {
+                    var diff = DeployManifestService.diff(before, after);
+                    if (!diff.isEmpty())
+                        docker.deployDiff(appDist, diff.changed(), diff.removed(), container, streamId, hub);
+                    log.append("updated /usr/share/nginx/html from dist: ").append(diff.changed().size())
+                            .append(" changed, ").append(diff.removed().size()).append(" removed\n");
+                }
+                manifests.save(container, after);
+                return new Result(image, container, containerUrl(safe, port), log.toString());
             } else {
-                log.append("docker build:\n").append(docker.build(appDir, image, streamId, hub)).append("\n");
+                String cachedImage = cacheKey == null ? null : registryPrefix + safe + ":" + cache.imageTag(cacheKey);
+                if (cachedDist != null && docker.imageExists(cachedImage)) {
+                    image = cachedImage;
+                    log.append("image cache hit: ").append(image).append("\n");
+                } else {
+                    ensureDockerRecipe(appDir, log);
+                    log.append("docker build:\n").append(buildImage(appDir, shared, image, streamId)).append("\n");
+                    if (cachedImage != null)
+                        docker.tag(image, cachedImage);
+                }
 
                 String rmOut = docker.rmForce(container, streamId, hub);
+                manifests.delete(container);
                 if (rmOut != null && !rmOut.isBlank())
                     log.append("docker rm (old):\n").append(rmOut).append("\n");
 
                 log.append("docker run:\n").append(docker.runDetached(container, port, image, streamId, hub))
                         .append("\n");
+                manifests.save(container, manifests.compute(appDist));
 
-                String url = "http://localhost:" + port;
+                String url = containerUrl(safe, port);
                 return new Result(image, container, url, log.toString());
             }
         } finally {
@@ -200,11 +260,183 @@ public class VueFactoryService {
         }
     }
 
+    /*
+     * runtime mode: rewrite only this tenant's config.js / theme.css, no build.
+     */
+    public Result updateRuntimeConfig(String companyId, String name, String streamId) throws Exception {
+        if (!isRuntimeMode()) {
+            throw new IllegalStateException("factory.deployMode=runtime required");
+        }
+        String safe = name.replaceAll("[^a-zA-Z0-9-_]", "-").toLowerCase();
+        Path appDist = Path.of(workspace, safe, "dist");
+        if (!Files.isDirectory(appDist)) {
+            throw new IllegalStateException("App not deployed: " + safe);
+        }
+        StringBuilder log = new StringBuilder();
+        String container = "vue-" + safe;
+        try {
+            vue.writeRuntimeConfig(appDist, companyId);
+            log.append("runtime config written for ").append(companyId).append("\n");
+
+            if (gateway.enabled()) {
+                gateway.publish(safe, appDist);
+                log.append("republished ").append(safe).append(" on static gateway\n");
+            } else if (docker.exists(container)) {
+                proxy.touch(safe);
+                docker.putFiles(appDist, List.of(VueProjectService.RUNTIME_CONFIG_JSON,
+                        VueProjectService.RUNTIME_CONFIG_JS, VueProjectService.RUNTIME_THEME_CSS),
+                        container, "/usr/share/nginx/html", streamId, hub);
+                if (manifests.load(container) != null)
+                    manifests.save(container, manifests.compute(appDist));
+                log.append("copied runtime config into ").append(container).append("\n");
+            }
+            return new Result(registryPrefix + safe + ":latest", container, null, log.toString());
+        } finally {
+            if (streamId != null && !streamId.isBlank()) {
+                hub.send(streamId, "[DONE]");
+                hub.close(streamId);
+            }
+        }
+    }
+
+    /*
+     * where a container-hosted tenant is reached: through TenantProxy when idle hibernation is on
+     * (its traffic must be seen), else its host port.
+     */
+    private String containerUrl(String app, int port) {
+        return proxy.enabled() ? proxy.url(app) : "http://localhost:" + port;
+    }
+
+    private boolean isRuntimeMode() {
+        return "runtime".equalsIgnoreCase(deployMode);
+    }
+
+    /*
+     * the template built once per template version (fingerprint), with runtime config hooks.
+     */
+    private Path sharedDist(StringBuilder log, String streamId, java.util.function.Consumer<String> out)
+            throws Exception {
+        String version = vue.templateFingerprint(Path.of(templateVuePath)).substring(0, 16)
+                + (gateway.enabled() ? "-rel" : "");
+        Path sharedDir = Path.of(workspace, ".shared", version);
+        Path marker = sharedDir.resolve(".complete");
+        if (!Files.exists(marker)) {
+            synchronized (sharedBuildLock) {
+                if (!Files.exists(marker)) {
+                    if (streamId != null && !streamId.isBlank())
+                        hub.send(streamId, "building shared template " + version + "...");
+                    Files.createDirectories(sharedDir);
+                    buildFromTemplate(null, true, sharedDir.toFile(), log, streamId, out);
+                    vue.injectRuntimeTags(sharedDir.resolve("dist"));
+                    precompress(sharedDir.resolve("dist"), log);
+                    Files.writeString(marker, version);
+                }
+            }
+        }
+        log.append("shared template build: ").append(version).append("\n");
+        return sharedDir.resolve("dist");
+    }
+
+    /*
+     * copy + patch + npm ci/install + npm run build into appDir (produces appDir/dist).
+     * runtime = true leaves tenant values out of the build (see VueProjectService.patchRuntime).
+     */
+    private void buildFromTemplate(String companyId, boolean runtime, File appDir, StringBuilder log,
+            String streamId, java.util.function.Consumer<String> out) throws Exception {
+        // Step 1: copy + patch
+        vue.copyTemplate(Path.of(templateVuePath), appDir.toPath(), true);
+        log.append("copy template -> ").append(appDir.getAbsolutePath()).append("\n");
+        if (streamId != null && !streamId.isBlank())
+            hub.send(streamId, "copy template done");
+
+        if (runtime) {
+            vue.patchRuntime(appDir.toPath());
+        } else {
+            vue.patchTsx(appDir.toPath(), companyId);
+            vue.patchCss(appDir.toPath(), companyId);
+        }
+
+        log.append("patch ChatComponent.tsx\n");
+        if (streamId != null && !streamId.isBlank())
+            hub.send(streamId, "patch ChatComponent.tsx done");
+
+        // Step 1.5: ensure Dockerfile & nginx.conf
+        if (!gateway.enabled())
+            ensureDockerRecipe(appDir, log);
+
+        // Step 1.75: relax ts checks
+        vue.relaxTypeChecks(appDir.toPath());
+        log.append("relax ts checks\n");
+
+        // Step 2: node_modules from the shared store, else npm ci / install + build (real-time output)
+        boolean useCi = appDir.toPath().resolve("package-lock.json").toFile().exists();
+        String depsKey = useCi ? deps.link(appDir, out) : null;
+        if (depsKey != null) {
+            log.append("node_modules -> shared store ").append(depsKey).append("\n");
+            if (streamId != null && !streamId.isBlank())
+                hub.send(streamId, "node_modules linked from shared store");
+        } else {
+            deps.removeNodeModules(appDir.toPath());
+            log.append("npm ").append(useCi ? "ci" : "install").append(":\n")
+                    .append(VueUtils.runNpmCiOrInstall(appDir, useCi, out)).append("\n");
+        }
+
+        log.append("npm run build:\n")
+                .append(VueUtils.runNpmRunBuild(appDir, gateway.enabled() ? GATEWAY_BUILD_ARGS : List.of(), out))
+                .append("\n");
+    }
+
+    /*
+     * everything besides template + config that shapes the build output (part of the cache key).
+     */
+    private String recipe() {
+        return (gateway.enabled() ? "gateway " + GATEWAY_BUILD_ARGS : dockerfile() + nginxConf())
+                + (precompress ? "gzip>=" + precompressMinBytes : "");
+    }
+
+    /*
+     * .gz next to each compressible dist file, sent as Content-Encoding: gzip by nginx gzip_static / StaticGateway.
+     */
+    private void precompress(Path dist, StringBuilder log) throws Exception {
+        if (!precompress)
+            return;
+        long started = System.currentTimeMillis();
+        Precompress.Stats st = Precompress.gzipTree(dist, precompressMinBytes);
+        log.append("precompressed ").append(st.files()).append(" file(s): ").append(st.bytesIn()).append(" -> ")
+                .append(st.bytesOut()).append(" bytes in ").append(System.currentTimeMillis() - started)
+                .append(" ms\n");
+    }
+
+    private void ensureDockerRecipe(File appDir, StringBuilder log) throws Exception {
+        Path dockerfilePath = appDir.toPath().resolve("Dockerfile");
+        Path nginxConfPath = appDir.toPath().resolve("nginx.conf");
+        if (!Files.exists(dockerfilePath)) {
+            Files.writeString(dockerfilePath, dockerfile());
+            log.append("write default Dockerfile\n");
+        }
+        if (!Files.exists(nginxConfPath)) {
+            Files.writeString(nginxConfPath, nginxConf());
+            log.append("write default nginx.conf\n");
+        }
+    }
+
+    /*
+     * tenant image: a thin layer over the shared base (LayeredImages) or, with factory.image.layered=false,
+     * the app's own Dockerfile.
+     */
+    private String buildImage(File appDir, Path sharedDist, String image, String streamId) throws Exception {
+        if (images.enabled())
+            return images.build(appDir.toPath(), appDir.toPath().resolve("dist"), sharedDist, nginxConf(), image,
+                    streamId);
+        return docker.build(appDir, image, streamId, hub);
+    }
+
     private String dockerfile() {
         return """
                 FROM nginx:1.27-alpine
                 COPY nginx.conf /etc/nginx/nginx.conf
-                COPY dist /usr/share/nginx/html
+                COPY dist /usr/share/nginx/releases/initial
+                RUN rm -rf /usr/share/nginx/html && ln -s releases/initial /usr/share/nginx/html
                 EXPOSE 80
                 CMD ["nginx","-g","daemon off;"]
                     """;
@@ -216,13 +448,34 @@ public class VueFactoryService {
                 events { worker_connections 1024; }
                 http {
                     include mime.types;
-                    default_type application/octet-stream; sendfile on;
+                    default_type application/octet-stream;
+                    sendfile on;
+                    tcp_nopush on;
+                    # dist/*.gz built by the factory; on-the-fly gzip only for what was not precompressed
+                    gzip on;
+                    gzip_static on;
+                    gzip_vary on;
+                    gzip_comp_level 5;
+                    gzip_min_length 1024;
+                    gzip_types text/css application/javascript text/javascript application/json image/svg+xml
+                               text/plain application/xml application/wasm;
                     server {
                         listen 80;
                         server_name _;
                         root /usr/share/nginx/html;
                         index index.html;
+                        absolute_redirect off;
+                        # vite assets: content-hashed names, never change
+                        location /assets/ {
+                            add_header Cache-Control "public, max-age=31536000, immutable";
+                            open_file_cache max=2000 inactive=5m;
+                            open_file_cache_valid 5m;
+                            open_file_cache_errors on;
+                            try_files $uri =404;
+                        }
+                        # entry page + runtime config: always revalidated, so a deploy shows up at once
                         location / {
+                            add_header Cache-Control "no-cache";
                             try_files $uri $uri/ /index.html;
                         }
                     }
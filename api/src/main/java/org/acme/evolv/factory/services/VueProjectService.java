@@ -3,10 +3,13 @@ package org.acme.evolv.factory.services;
 import java.nio.file.*;
 import java.util.*;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import org.acme.evolv.dto.ChatConfig;
 import org.acme.evolv.factory.patcher.ChatComponentPatcher;
 import org.acme.evolv.factory.patcher.CssThemePatcher;
 import org.acme.evolv.interfaces.ChatConfigRepo;
+import org.acme.evolv.utils.HashUtils;
 import org.jboss.logging.Logger;
 
 import jakarta.enterprise.context.ApplicationScoped;
@@ -23,11 +26,14 @@ public class VueProjectService {
     @Named("jdbcRepo")
     ChatConfigRepo configRepo;
 
+    @Inject
+    ObjectMapper mapper;
+
+    private static final Set<String> EXCLUDE_DIRS = Set.of(".git", "node_modules", "dist", "build", ".cache");
+    private static final Set<String> EXCLUDE_FILES = Set.of(".gitignore", ".DS_Store");
+
     // ---- Copy template ----
     public void copyTemplate(Path src, Path dst, boolean overwrite) throws Exception {
-        final Set<String> excludeDirs = Set.of(".git", "node_modules", "dist", "build", ".cache");
-        final Set<String> excludeFiles = Set.of(".gitignore", ".DS_Store");
-
         Files.createDirectories(dst);
         LOG.debug("Copying template from " + src + " to " + dst + ", overwrite=" + overwrite);
         try (var stream = Files.walk(src)) {
@@ -36,10 +42,7 @@ public class VueProjectService {
                     Path rel = src.relativize(p);
                     if (rel.toString().isEmpty())
                         return;
-                    for (Path part : rel)
-                        if (excludeDirs.contains(part.getFileName().toString()))
-                            return;
-                    if (excludeFiles.contains(rel.getFileName().toString()))
+                    if (isExcluded(rel))
                         return;
 
                     Path target = dst.resolve(rel);
@@ -58,6 +61,58 @@ public class VueProjectService {
         }
     }
 
+    private static boolean isExcluded(Path rel) {
+        for (Path part : rel)
+            if (EXCLUDE_DIRS.contains(part.getFileName().toString()))
+                return true;
+        return EXCLUDE_FILES.contains(rel.getFileName().toString());
+    }
+
+    // ---- Fingerprints (build cache keys) ----
+
+    /*
+     * sha-256 over every file copyTemplate would copy (relative path + content hash),
+     * walked in a stable order so the same tree always gives the same value.
+     */
+    public String templateFingerprint(Path src) throws Exception {
+        List<Path> files;
+        try (var stream = Files.walk(src)) {
+            files = stream.filter(Files::isRegularFile)
+                    .filter(p -> !isExcluded(src.relativize(p)))
+                    .sorted()
+                    .toList();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Path p : files) {
+            sb.append(src.relativize(p).toString().replace('\\', '/'))
+                    .append('=')
+                    .append(HashUtils.hashFile(p, "SHA-256"))
+                    .append('\n');
+        }
+        return HashUtils.hashString(sb.toString(), "SHA-256");
+    }
+
+    /*
+     * the resolved values patchTsx / patchCss would write for this company.
+     */
+    public String configFingerprint(String companyId) throws Exception {
+        ChatConfig cfg = requireConfig(companyId);
+        var theme = themeOf(cfg);
+        String values = String.join("\u0000",
+                nullToEmpty(cfg.apiUrl()),
+                nullToEmpty(cfg.headerText()),
+                nullToEmpty(cfg.welcomeText()),
+                nullToEmpty(cfg.messageIconUrl()),
+                nullToEmpty(cfg.headerIconUrl()),
+                theme.primary(),
+                theme.contentBg(),
+                theme.footerBg(),
+                theme.textColor(),
+                theme.bubbleUser(),
+                theme.bubbleBot());
+        return HashUtils.hashString(values, "SHA-256");
+    }
+
     // ---- Patchers orchestration ----
     public void patchTsx(Path appDir, String companyId) throws Exception {
         ChatConfig cfg = requireConfig(companyId);
@@ -73,17 +128,67 @@ public class VueProjectService {
 
     public void patchCss(Path appDir, String companyId) throws Exception {
         ChatConfig cfg = requireConfig(companyId);
-        var theme = new CssThemePatcher.ThemeCfg(
-                nullToEmpty(cfg.themePrimary()),
-                nullToEmpty(cfg.contentBg()),
-                nullToEmpty(cfg.footerBg()),
-                nullToEmpty(cfg.textColor()),
-                nullToEmpty(cfg.bubbleUser()),
-                nullToEmpty(cfg.bubbleBot()));
-        cssPatcher.patch(appDir, theme);
+        cssPatcher.patch(appDir, themeOf(cfg));
         LOG.infof("[patchCss] company=%s done", companyId);
     }
 
+    // ---- Runtime config (one shared build, per-tenant config files) ----
+
+    public static final String RUNTIME_CONFIG_JSON = "config.json";
+    public static final String RUNTIME_CONFIG_JS = "config.js";
+    public static final String RUNTIME_THEME_CSS = "theme.css";
+
+    /*
+     * patch the template so the build reads tenant values at runtime instead of baking them in.
+     */
+    public void patchRuntime(Path appDir) throws Exception {
+        tsxPatcher.patchRuntime(appDir);
+        cssPatcher.patchRuntime(appDir);
+    }
+
+    /*
+     * load config.js and theme.css from the built index.html (done once on the shared dist).
+     * config.js is a classic script, so it runs before the deferred module bundle;
+     * theme.css is linked last in <head>, so its :root vars override the bundle's defaults.
+     */
+    public void injectRuntimeTags(Path dist) throws Exception {
+        Path index = dist.resolve("index.html");
+        if (!Files.exists(index))
+            return;
+        String html = Files.readString(index);
+        if (html.contains(RUNTIME_CONFIG_JS))
+            return;
+        String tags = "  <script src=\"./" + RUNTIME_CONFIG_JS + "\"></script>\n"
+                + "  <link rel=\"stylesheet\" href=\"./" + RUNTIME_THEME_CSS + "\">\n";
+        int head = html.indexOf("</head>");
+        html = head < 0 ? tags + html : html.substring(0, head) + tags + html.substring(head);
+        Files.writeString(index, html);
+    }
+
+    /*
+     * write config.json / config.js / theme.css for this company into dist.
+     */
+    public void writeRuntimeConfig(Path dist, String companyId) throws Exception {
+        ChatConfig cfg = requireConfig(companyId);
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("apiUrl", nullToEmpty(cfg.apiUrl()));
+        values.put("headerText", nullToEmpty(cfg.headerText()));
+        values.put("welcomeText", nullToEmpty(cfg.welcomeText()));
+        values.put("messageIconUrl", nullToEmpty(cfg.messageIconUrl()));
+        values.put("headerIconUrl", nullToEmpty(cfg.headerIconUrl()));
+        String json = mapper.writeValueAsString(values);
+
+        Files.createDirectories(dist);
+        Files.writeString(dist.resolve(RUNTIME_CONFIG_JSON), json);
+        Files.writeString(dist.resolve(RUNTIME_CONFIG_JS),
+                "window." + ChatComponentPatcher.RUNTIME_CFG_GLOBAL + " = " + json + ";\n");
+        Files.writeString(dist.resolve(RUNTIME_THEME_CSS), cssPatcher.renderThemeCss(themeOf(cfg)));
+        for (String f : List.of(RUNTIME_CONFIG_JSON, RUNTIME_CONFIG_JS, RUNTIME_THEME_CSS)) {
+            Files.deleteIfExists(dist.resolve(f + ".gz")); // never a stale precompressed copy (nginx gzip_static)
+        }
+        LOG.infof("[writeRuntimeConfig] company=%s done", companyId);
+    }
+
     // ---- Relax TypeScript strict rules ----
     public void relaxTypeChecks(Path appDir) throws Exception {
         patchPackageJson(appDir);
@@ -116,6 +221,16 @@ public class VueProjectService {
         }
     }
 
+    private static CssThemePatcher.ThemeCfg themeOf(ChatConfig cfg) {
+        return new CssThemePatcher.ThemeCfg(
+                nullToEmpty(cfg.themePrimary()),
+                nullToEmpty(cfg.contentBg()),
+                nullToEmpty(cfg.footerBg()),
+                nullToEmpty(cfg.textColor()),
+                nullToEmpty(cfg.bubbleUser()),
+                nullToEmpty(cfg.bubbleBot()));
+    }
+
     private static String nullToEmpty(String s) {
         return s == null ? "" : s;
     }
@@ -1,7 +1,8 @@
 package org.acme.evolv.factory.shell;
 
+import org.acme.evolv.utils.ProcessRunner;
+
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,21 +27,13 @@ public class Shell {
      */
     public static String runDirect(List<String> cmd, Duration timeout, boolean ignoreNonZeroExit)
             throws IOException, InterruptedException {
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        // For simplicity, this call blocks until completion; for robustness, consider async reading via threads/selectors.
-        boolean finished = p.waitFor(timeout.toMillis(), java.util.concurrent.TimeUnit.MILLISECONDS);
-        if (!finished) {
-            p.destroyForcibly();
-            throw new RuntimeException("Command timeout: " + String.join(" ", cmd));
-        }
-        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-        int code = p.exitValue();
-        if (code != 0 && !ignoreNonZeroExit) {
-            throw new RuntimeException("Command failed(" + code + "): " + String.join(" ", cmd) + "\n" + out);
+        // output is drained while waiting (ProcessRunner), so large outputs cannot block the child
+        ProcessRunner.Result r = ProcessRunner.run(cmd, null, timeout, null, null);
+        if (r.exitCode() != 0 && !ignoreNonZeroExit) {
+            throw new RuntimeException("Command failed(" + r.exitCode() + "): " + String.join(" ", cmd) + "\n"
+                    + ProcessRunner.describe(r));
         }
-        return out;
+        return r.output();
     }
 
     /**
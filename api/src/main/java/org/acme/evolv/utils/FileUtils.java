@@ -0,0 +1,45 @@
+package org.acme.evolv.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+
+/*
+ * copyTree, deleteTree
+ */
+public final class FileUtils {
+    private FileUtils() {
+    }
+
+    /*
+     * copy every file under src to dst (created if missing), overwriting existing files.
+     */
+    public static void copyTree(Path src, Path dst) throws IOException {
+        try (var stream = Files.walk(src)) {
+            for (Path p : (Iterable<Path>) stream::iterator) {
+                Path target = dst.resolve(src.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Files.copy(p, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    /*
+     * delete root and everything below it; no-op if it does not exist.
+     */
+    public static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root))
+            return;
+        try (var stream = Files.walk(root)) {
+            for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package org.acme.evolv.utils;
 
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import org.mindrot.jbcrypt.BCrypt;
 
@@ -10,9 +13,27 @@ public final class HashUtils {
     public static String hashString(String input, String algorithm) throws Exception {
         MessageDigest md = MessageDigest.getInstance(algorithm);
         byte[] hashBytes = md.digest(input.getBytes("UTF-8"));
+        return toHex(hashBytes);
+    }
+
+    /*
+     * hash file content in a streaming way (no full read into memory).
+     */
+    public static String hashFile(Path file, String algorithm) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        }
+        return toHex(md.digest());
+    }
 
-        StringBuilder sb = new StringBuilder();
-        for (byte b : hashBytes) {
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
             sb.append(String.format("%02x", b));
         }
         return sb.toString();
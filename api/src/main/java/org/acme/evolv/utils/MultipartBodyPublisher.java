@@ -0,0 +1,73 @@
+package org.acme.evolv.utils;
+
+import java.io.FileNotFoundException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * field, file, contentType, build
+ * multipart/form-data body for java.net.http: headers are small byte arrays, file parts are
+ * BodyPublishers.ofFile (read from disk while sending), joined with BodyPublishers.concat.
+ * Nothing is copied into memory, and Content-Length is still known up front.
+ */
+public final class MultipartBodyPublisher {
+    private static final String CRLF = "\r\n";
+
+    private final String boundary = "----JavaBoundary" + UUID.randomUUID();
+    private final List<BodyPublisher> parts = new ArrayList<>();
+
+    public MultipartBodyPublisher field(String name, String value) {
+        parts.add(bytes("--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"" + escape(name) + "\"" + CRLF
+                + "Content-Type: text/plain; charset=UTF-8" + CRLF + CRLF
+                + (value == null ? "" : value) + CRLF));
+        return this;
+    }
+
+    public MultipartBodyPublisher file(String name, String fileName, String contentType, Path file)
+            throws FileNotFoundException {
+        String type = contentType == null || contentType.isBlank() ? "application/octet-stream" : contentType;
+        parts.add(bytes("--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"" + escape(name) + "\"; filename=\"" + escape(fileName) + "\""
+                + CRLF
+                + "Content-Type: " + type + CRLF + CRLF));
+        parts.add(BodyPublishers.ofFile(file));
+        parts.add(bytes(CRLF));
+        return this;
+    }
+
+    public String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    public BodyPublisher build() {
+        List<BodyPublisher> all = new ArrayList<>(parts);
+        all.add(bytes("--" + boundary + "--" + CRLF));
+        return BodyPublishers.concat(all.toArray(BodyPublisher[]::new));
+    }
+
+    /*
+     * POST request to url with this body.
+     */
+    public HttpRequest.Builder post(String url) {
+        return HttpRequest.newBuilder()
+                .uri(java.net.URI.create(url))
+                .header("Content-Type", contentType())
+                .POST(build());
+    }
+
+    private static BodyPublisher bytes(String s) {
+        return BodyPublishers.ofByteArray(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // quotes / line breaks would end the header value early
+    private static String escape(String s) {
+        return s == null ? "" : s.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+}
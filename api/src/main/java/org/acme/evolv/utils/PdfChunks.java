@@ -0,0 +1,56 @@
+package org.acme.evolv.utils;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * split: cut a PDF into page-range files of at most pagesPerChunk pages.
+ * - the source is parsed lazily from its file, pages are read as they are copied
+ * - object streams of both documents are cached in temp files, not on the heap
+ * - one chunk document is open at a time and written out before the next one starts
+ */
+public final class PdfChunks {
+
+    private PdfChunks() {
+    }
+
+    /** Pages [fromPage, toPage] (1-based, inclusive) of the source, written to file. */
+    public record Chunk(int fromPage, int toPage, Path file) {
+    }
+
+    public static int pageCount(Path pdf) throws IOException {
+        try (PDDocument doc = Loader.loadPDF(pdf.toFile(), IOUtils.createTempFileOnlyStreamCache())) {
+            return doc.getNumberOfPages();
+        }
+    }
+
+    /*
+     * chunks of pdf into outDir; a single chunk (the whole document) when it has no more than pagesPerChunk pages.
+     */
+    public static List<Chunk> split(Path pdf, int pagesPerChunk, Path outDir) throws IOException {
+        Files.createDirectories(outDir);
+        List<Chunk> chunks = new ArrayList<>();
+        try (PDDocument doc = Loader.loadPDF(pdf.toFile(), IOUtils.createTempFileOnlyStreamCache())) {
+            int pages = doc.getNumberOfPages();
+            for (int from = 0; from < pages; from += pagesPerChunk) {
+                int to = Math.min(pages, from + pagesPerChunk);
+                Path out = outDir.resolve(String.format("%05d-%05d.pdf", from + 1, to));
+                try (PDDocument part = new PDDocument(IOUtils.createTempFileOnlyStreamCache())) {
+                    for (int p = from; p < to; p++) {
+                        part.importPage(doc.getPage(p));
+                    }
+                    part.save(out.toFile());
+                }
+                chunks.add(new Chunk(from + 1, to, out));
+            }
+        }
+        return chunks;
+    }
+}
@@ -7,6 +7,7 @@ import java.net.ServerSocket;
 public class PortUtils {
     /*
      * create a stable port number in range 9000-16999 based on name's hash
+     * (names can collide; app containers get their port from PortAllocator)
      */
     public static int pickPort(String name) {
         int base = 9000;
@@ -0,0 +1,114 @@
+package org.acme.evolv.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * gzipTree: foo.js -> foo.js.gz next to it, for nginx gzip_static.
+ */
+public final class Precompress {
+    private Precompress() {
+    }
+
+    /* text-like files worth compressing; images / fonts (woff2) are compressed already */
+    private static final Set<String> EXTENSIONS = Set.of(
+            "html", "js", "mjs", "css", "json", "svg", "txt", "xml", "map", "wasm", "ico");
+
+    public record Stats(int files, long bytesIn, long bytesOut) {
+    }
+
+    /*
+     * gzip (best compression) every compressible file of at least minBytes under root, one file per core at a time.
+     * A .gz that would not be smaller is not written; stale .gz files of skipped / rewritten files are removed,
+     * and so are .gz files of compressible files that are gone. Other .gz files (shipped as such) are left alone.
+     */
+    public static Stats gzipTree(Path root, long minBytes) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (var stream = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) stream::iterator) {
+                if (!Files.isRegularFile(p))
+                    continue;
+                if (p.getFileName().toString().endsWith(".gz")) {
+                    Path original = p.resolveSibling(p.getFileName().toString().replaceFirst("\\.gz$", ""));
+                    if (compressible(original) && !Files.exists(original))
+                        Files.delete(p); // orphan of ours
+                    continue;
+                }
+                if (compressible(p))
+                    files.add(p);
+            }
+        }
+
+        AtomicLong in = new AtomicLong();
+        AtomicLong out = new AtomicLong();
+        int written = 0;
+        int threads = Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        try (var exec = Executors.newFixedThreadPool(threads)) {
+            List<Future<Boolean>> jobs = new ArrayList<>(files.size());
+            for (Path p : files) {
+                jobs.add(exec.submit(() -> gzip(p, minBytes, in, out)));
+            }
+            for (Future<Boolean> f : jobs) {
+                if (f.get())
+                    written++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("precompress interrupted", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+        return new Stats(written, in.get(), out.get());
+    }
+
+    private static boolean compressible(Path p) {
+        String name = p.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean gzip(Path src, long minBytes, AtomicLong in, AtomicLong out) throws IOException {
+        Path gz = src.resolveSibling(src.getFileName() + ".gz");
+        long size = Files.size(src);
+        if (size < minBytes) {
+            Files.deleteIfExists(gz);
+            return false;
+        }
+        Path tmp = src.resolveSibling(src.getFileName() + ".gz.tmp");
+        try (OutputStream os = new BestGzip(Files.newOutputStream(tmp))) {
+            Files.copy(src, os);
+        }
+        long packed = Files.size(tmp);
+        if (packed >= size) {
+            Files.delete(tmp);
+            Files.deleteIfExists(gz);
+            return false;
+        }
+        Files.move(tmp, gz, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // same mtime as the original: nginx derives Last-Modified / ETag from the file it sends
+        Files.setLastModifiedTime(gz, Files.getLastModifiedTime(src));
+        in.addAndGet(size);
+        out.addAndGet(packed);
+        return true;
+    }
+
+    private static final class BestGzip extends GZIPOutputStream {
+        BestGzip(OutputStream out) throws IOException {
+            super(out, 64 * 1024);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
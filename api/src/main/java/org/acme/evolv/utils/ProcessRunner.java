@@ -0,0 +1,235 @@
+package org.acme.evolv.utils;
+
+import org.jboss.logging.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * run: the one process runner behind VueUtils.runDirect and Shell.runDirect.
+ * - stdout+stderr drained on a virtual thread while the caller waits (no pipe deadlock)
+ * - every line goes to the onLine subscriber as it arrives, and to LOG at debug level
+ * - only the last TAIL_LINES / TAIL_CHARS are kept in memory (ring buffer); once output
+ *   outgrows it, the full log is spilled to a file under {tmp}/evolv-proc-logs
+ */
+public final class ProcessRunner {
+    private static final Logger LOG = Logger.getLogger(ProcessRunner.class);
+
+    private static final int TAIL_LINES = 400;
+    private static final int TAIL_CHARS = 128 * 1024;
+    private static final int MAX_LINE = 8 * 1024;
+    private static final int KEEP_SPILL_FILES = 50;
+    private static final Path SPILL_DIR = Path.of(System.getProperty("java.io.tmpdir"), "evolv-proc-logs");
+
+    private ProcessRunner() {
+    }
+
+    /** Feeds a process' stdin, e.g. a tar stream for `docker cp -`. */
+    @FunctionalInterface
+    public interface StdinWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /*
+     * exitCode, the tail of the output (whole output when it fit), and the spill file (null if none).
+     */
+    public record Result(int exitCode, String output, long lines, Path logFile) {
+    }
+
+    public static Result run(List<String> cmd, File workDir, Duration timeout, Consumer<String> onLine,
+            StdinWriter stdin) throws IOException, InterruptedException {
+        return run(cmd, workDir, null, timeout, onLine, stdin);
+    }
+
+    /*
+     * same, with extra environment variables (null = the server's environment as is).
+     */
+    public static Result run(List<String> cmd, File workDir, Map<String, String> env, Duration timeout,
+            Consumer<String> onLine, StdinWriter stdin) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        if (workDir != null)
+            pb.directory(workDir);
+        if (env != null)
+            pb.environment().putAll(env);
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+
+        Capture capture = new Capture(cmd, onLine);
+        Thread drain = Thread.ofVirtual().name("proc-drain-" + p.pid()).start(() -> capture.drain(p.getInputStream()));
+
+        IOException stdinError = null;
+        if (stdin != null) {
+            try (OutputStream in = new BufferedOutputStream(p.getOutputStream(), 64 * 1024)) {
+                stdin.writeTo(in);
+            } catch (IOException e) {
+                stdinError = e; // process exited early; its output says why
+            }
+        }
+
+        boolean finished = p.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        if (!finished) {
+            p.descendants().forEach(ProcessHandle::destroyForcibly);
+            p.destroyForcibly();
+            drain.join(5_000);
+            capture.close();
+            throw new RuntimeException("Command timeout: " + String.join(" ", cmd) + capture.logHint());
+        }
+        drain.join();
+        capture.close();
+
+        if (stdinError != null && p.exitValue() == 0) {
+            throw new RuntimeException("Command input failed: " + String.join(" ", cmd) + "\n" + capture.tail(),
+                    stdinError);
+        }
+        return new Result(p.exitValue(), capture.tail(), capture.lines, capture.spill);
+    }
+
+    /*
+     * output for the "Command failed" message; points at the spill file when the tail is partial.
+     */
+    public static String describe(Result r) {
+        return r.logFile() == null ? r.output() : r.output() + "(full log: " + r.logFile() + ")\n";
+    }
+
+    // ---------- capture ----------
+
+    private static final class Capture {
+        private final List<String> cmd;
+        private final Consumer<String> onLine;
+        private final ArrayDeque<String> ring = new ArrayDeque<>();
+        private int ringChars;
+        private long lines;
+        private long dropped;
+        private Path spill;
+        private Writer spillOut;
+        private boolean spillFailed;
+
+        Capture(List<String> cmd, Consumer<String> onLine) {
+            this.cmd = cmd;
+            this.onLine = onLine;
+        }
+
+        void drain(InputStream in) {
+            try (in) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+                byte[] buf = new byte[16 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    for (int i = 0; i < n; i++) {
+                        byte b = buf[i];
+                        if (b == '\n') {
+                            emit(line);
+                        } else if (b != '\r' && line.size() < MAX_LINE) {
+                            line.write(b);
+                        }
+                    }
+                }
+                if (line.size() > 0)
+                    emit(line);
+            } catch (IOException e) {
+                LOG.debugf("output of %s closed: %s", cmd.get(0), e.getMessage());
+            }
+        }
+
+        private void emit(ByteArrayOutputStream bytes) {
+            String line = bytes.toString(StandardCharsets.UTF_8);
+            bytes.reset();
+            synchronized (this) {
+                lines++;
+                ring.addLast(line);
+                ringChars += line.length() + 1;
+                boolean overflow = ring.size() > TAIL_LINES || ringChars > TAIL_CHARS;
+                if (spillOut != null || (overflow && !spillFailed))
+                    spill(line);
+                while (ring.size() > TAIL_LINES || ringChars > TAIL_CHARS) {
+                    ringChars -= ring.removeFirst().length() + 1;
+                    dropped++;
+                }
+            }
+            LOG.debugf("[proc] %s", line);
+            if (onLine != null) {
+                try {
+                    onLine.accept(line);
+                } catch (RuntimeException e) {
+                    LOG.debugf("line subscriber failed: %s", e.getMessage());
+                }
+            }
+        }
+
+        /*
+         * append line to the spill file; the first call (ring about to overflow, nothing evicted yet)
+         * opens it and writes the whole ring, so the file holds the complete output.
+         */
+        private void spill(String line) {
+            try {
+                if (spillOut == null) {
+                    Files.createDirectories(SPILL_DIR);
+                    pruneSpills();
+                    String exe = Path.of(cmd.get(0)).getFileName().toString().replaceAll("[^a-zA-Z0-9.-]", "_");
+                    spill = Files.createTempFile(SPILL_DIR, exe + "-", ".log");
+                    spillOut = Files.newBufferedWriter(spill, StandardCharsets.UTF_8);
+                    spillOut.write("$ " + String.join(" ", cmd) + "\n");
+                    for (String l : ring) {
+                        spillOut.write(l);
+                        spillOut.write('\n');
+                    }
+                    return; // line is already the ring's last element
+                }
+                spillOut.write(line);
+                spillOut.write('\n');
+            } catch (IOException e) {
+                LOG.warnf("cannot spill process log to %s: %s", SPILL_DIR, e.getMessage());
+                closeQuietly();
+                spill = null;
+                spillFailed = true;
+            }
+        }
+
+        synchronized String tail() {
+            StringBuilder sb = new StringBuilder(ringChars + 64);
+            if (dropped > 0)
+                sb.append("... ").append(dropped).append(" earlier line(s) omitted\n");
+            for (String l : ring)
+                sb.append(l).append('\n');
+            return sb.toString();
+        }
+
+        synchronized String logHint() {
+            return spill == null ? "\n" + tail() : "\n" + tail() + "(full log: " + spill + ")";
+        }
+
+        synchronized void close() {
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            if (spillOut == null)
+                return;
+            try {
+                spillOut.close();
+            } catch (IOException ignore) {
+                /* nothing to do */
+            }
+            spillOut = null;
+        }
+    }
+
+    private static void pruneSpills() throws IOException {
+        try (var files = Files.list(SPILL_DIR)) {
+            List<Path> all = files.sorted(Comparator.comparing((Path f) -> f.toFile().lastModified()).reversed())
+                    .toList();
+            for (Path old : all.subList(Math.min(all.size(), KEEP_SPILL_FILES - 1), all.size())) {
+                Files.deleteIfExists(old);
+            }
+        }
+    }
+}
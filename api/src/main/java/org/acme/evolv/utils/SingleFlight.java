@@ -0,0 +1,71 @@
+package org.acme.evolv.utils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * run: at most one call per key in flight; callers arriving while it runs wait for it and
+ * get the same result (or the same exception). Nothing is kept after the call completes,
+ * that is AnalysisCache's job.
+ */
+public final class SingleFlight<K, V> {
+
+    @FunctionalInterface
+    public interface Call<V> {
+        V call() throws Exception;
+    }
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong shared = new AtomicLong();
+
+    public V run(K key, Call<V> call) throws Exception {
+        return run(key, null, call);
+    }
+
+    /*
+     * maxWait bounds how long a caller waits for someone else's call (TimeoutException after it);
+     * null = until that call completes. The leader's own call is not bounded here.
+     */
+    public V run(K key, Duration maxWait, Call<V> call) throws Exception {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            shared.incrementAndGet();
+            try {
+                return maxWait == null ? leader.get() : leader.get(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new TimeoutException("identical call still running after " + maxWait);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception ex)
+                    throw ex;
+                throw (Error) e.getCause();
+            }
+        }
+        try {
+            V v = call.call();
+            mine.complete(v);
+            return v;
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /*
+     * callers that got another caller's result instead of making their own call.
+     */
+    public long shared() {
+        return shared.get();
+    }
+}
@@ -0,0 +1,170 @@
+package org.acme.evolv.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * writeTree, writeFile, writeFiles, finish
+ * streaming ustar writer (PAX header for long paths); entries go straight to the
+ * output stream, nothing is staged on disk or buffered in memory.
+ */
+public final class TarUtils {
+    private static final int BLOCK = 512;
+
+    private TarUtils() {
+    }
+
+    /*
+     * write every file/dir under root, named prefix + relative path ("" = no prefix).
+     */
+    public static void writeTree(Path root, String prefix, OutputStream out) throws IOException {
+        try (var stream = Files.walk(root)) {
+            for (Path p : stream.sorted().toList()) {
+                String rel = root.relativize(p).toString().replace('\\', '/');
+                String name = rel.isEmpty() ? stripSlash(prefix) : prefix + rel;
+                if (name.isEmpty())
+                    continue;
+                if (Files.isDirectory(p)) {
+                    writeDir(name, out);
+                } else if (Files.isRegularFile(p)) {
+                    writeFile(p, name, out);
+                }
+            }
+        }
+    }
+
+    /*
+     * write the given files (relative to root), in list order, named prefix + relative path.
+     */
+    public static void writeFiles(Path root, List<String> relPaths, String prefix, OutputStream out)
+            throws IOException {
+        for (String rel : relPaths) {
+            writeFile(root.resolve(rel), prefix + rel.replace('\\', '/'), out);
+        }
+    }
+
+    public static void writeDir(String name, OutputStream out) throws IOException {
+        writeHeader(name.endsWith("/") ? name : name + "/", 0, '5', 0755, out);
+    }
+
+    public static void writeFile(Path file, String name, OutputStream out) throws IOException {
+        long size = Files.size(file);
+        writeHeader(name, size, '0', 0644, out);
+        try (InputStream in = Files.newInputStream(file)) {
+            long copied = in.transferTo(out);
+            if (copied != size)
+                throw new IOException("file changed while archiving: " + file);
+        }
+        pad(size, out);
+    }
+
+    /*
+     * end-of-archive marker (two zero blocks).
+     */
+    public static void finish(OutputStream out) throws IOException {
+        out.write(new byte[BLOCK * 2]);
+        out.flush();
+    }
+
+    // ---------- headers ----------
+
+    private static void writeHeader(String name, long size, char type, int mode, OutputStream out)
+            throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        String ustarName = name;
+        String ustarPrefix = "";
+        if (nameBytes.length > 100) {
+            int split = splitPoint(name);
+            if (split > 0) {
+                ustarPrefix = name.substring(0, split);
+                ustarName = name.substring(split + 1);
+            } else {
+                writePax(name, out);
+                ustarName = truncate(name, 100);
+            }
+        }
+
+        byte[] h = new byte[BLOCK];
+        put(h, 0, 100, ustarName);
+        put(h, 100, 8, octal(mode, 7));
+        put(h, 108, 8, octal(0, 7));
+        put(h, 116, 8, octal(0, 7));
+        put(h, 124, 12, octal(size, 11));
+        put(h, 136, 12, octal(System.currentTimeMillis() / 1000, 11));
+        Arrays.fill(h, 148, 156, (byte) ' ');
+        h[156] = (byte) type;
+        put(h, 257, 6, "ustar");
+        put(h, 263, 2, "00");
+        put(h, 345, 155, ustarPrefix);
+
+        long sum = 0;
+        for (byte b : h)
+            sum += b & 0xff;
+        put(h, 148, 8, octal(sum, 6) + "\0 ");
+        out.write(h);
+    }
+
+    private static void writePax(String path, OutputStream out) throws IOException {
+        byte[] record = paxRecord("path", path);
+        writeHeader("././@PaxHeader", record.length, 'x', 0644, out);
+        out.write(record);
+        pad(record.length, out);
+    }
+
+    /*
+     * "<len> key=value\n" where len counts the whole record including itself.
+     */
+    private static byte[] paxRecord(String key, String value) {
+        int base = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int len = base + String.valueOf(base).length();
+        if (String.valueOf(len).length() != String.valueOf(base).length())
+            len++;
+        return (len + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * index of a '/' that splits name into prefix (<=155 bytes) and name (<=100 bytes), or -1.
+     */
+    private static int splitPoint(String name) {
+        for (int i = name.length() - 1; i > 0; i--) {
+            if (name.charAt(i) != '/')
+                continue;
+            int prefixLen = name.substring(0, i).getBytes(StandardCharsets.UTF_8).length;
+            int nameLen = name.substring(i + 1).getBytes(StandardCharsets.UTF_8).length;
+            if (prefixLen <= 155 && nameLen <= 100 && nameLen > 0)
+                return i;
+        }
+        return -1;
+    }
+
+    private static void pad(long size, OutputStream out) throws IOException {
+        int rem = (int) (size % BLOCK);
+        if (rem != 0)
+            out.write(new byte[BLOCK - rem]);
+    }
+
+    private static String octal(long v, int digits) {
+        String s = Long.toOctalString(v);
+        return "0".repeat(Math.max(0, digits - s.length())) + s;
+    }
+
+    private static void put(byte[] h, int off, int len, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(b, 0, h, off, Math.min(len, b.length));
+    }
+
+    private static String truncate(String s, int maxBytes) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        return b.length <= maxBytes ? s : new String(b, 0, maxBytes, StandardCharsets.UTF_8);
+    }
+
+    private static String stripSlash(String s) {
+        return s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
+    }
+}
@@ -0,0 +1,30 @@
+package org.acme.evolv.utils;
+
+/*
+ * tryTake: token bucket, refilled continuously at ratePerMinute up to burst tokens.
+ * Returns 0 when a token was taken, else the millis until one will be available.
+ */
+public final class TokenBucket {
+    private final double perMilli;
+    private final double capacity;
+    private double tokens;
+    private long last;
+
+    public TokenBucket(double ratePerMinute, int burst) {
+        this.perMilli = ratePerMinute / 60_000.0;
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.last = System.currentTimeMillis();
+    }
+
+    public synchronized long tryTake() {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(capacity, tokens + (now - last) * perMilli);
+        last = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / perMilli);
+    }
+}
@@ -3,7 +3,6 @@ package org.acme.evolv.utils;
 import org.jboss.logging.Logger;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
@@ -38,51 +37,38 @@ public class VueUtils {
     }
 
     /*
-     * exec cmd in workDir, wait up to timeout.
-     * return combined stdout+stderr.
+     * exec cmd in workDir, wait up to timeout (see ProcessRunner).
+     * return combined stdout+stderr (its tail, for very long outputs).
      * if ignoreNonZeroExit is false, throw if exit code != 0.
-     * logs are printed to console in real-time.
+     * each line goes to onLine in real-time.
      */
     public static String runDirect(List<String> cmd, File workDir, Duration timeout, boolean ignoreNonZeroExit,
             java.util.function.Consumer<String> onLine)
             throws Exception {
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        if (workDir != null)
-            pb.directory(workDir);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-
-        StringBuilder logBuffer = new StringBuilder();
-        Thread outThread = new Thread(() -> {
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.out.println("[proc] " + line);
-                    logBuffer.append(line).append("\n");
-                    if (onLine != null) {
-                        onLine.accept(line);
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
-        outThread.start();
-
-        boolean finished = p.waitFor(timeout.toMillis(), java.util.concurrent.TimeUnit.MILLISECONDS);
-        if (!finished) {
-            p.destroyForcibly();
-            throw new RuntimeException("Command timeout: " + String.join(" ", cmd));
-        }
-        outThread.join();
+        return runDirect(cmd, workDir, timeout, ignoreNonZeroExit, onLine, null);
+    }
+
+    /*
+     * same as above, stdin is written by the given writer (then closed) while output is read.
+     */
+    public static String runDirect(List<String> cmd, File workDir, Duration timeout, boolean ignoreNonZeroExit,
+            java.util.function.Consumer<String> onLine, ProcessRunner.StdinWriter stdin)
+            throws Exception {
+        return runDirect(cmd, workDir, null, timeout, ignoreNonZeroExit, onLine, stdin);
+    }
 
-        int code = p.exitValue();
-        String out = logBuffer.toString();
-        if (code != 0 && !ignoreNonZeroExit) {
-            throw new RuntimeException("Command failed(" + code + "): " + String.join(" ", cmd) + "\n" + out);
+    /*
+     * same, with extra environment variables for the process (e.g. DOCKER_BUILDKIT=1).
+     */
+    public static String runDirect(List<String> cmd, File workDir, java.util.Map<String, String> env,
+            Duration timeout, boolean ignoreNonZeroExit, java.util.function.Consumer<String> onLine,
+            ProcessRunner.StdinWriter stdin) throws Exception {
+        ProcessRunner.Result r = ProcessRunner.run(cmd, workDir, env, timeout, onLine, stdin);
+        if (r.exitCode() != 0 && !ignoreNonZeroExit) {
+            throw new RuntimeException("Command failed(" + r.exitCode() + "): " + String.join(" ", cmd) + "\n"
+                    + ProcessRunner.describe(r));
         }
-        return out;
+        return r.output();
     }
 
     public static String runDirect(List<String> cmd, File workDir, Duration timeout,
@@ -106,7 +92,18 @@ public class VueUtils {
     // }
 
     public static String runNpmRunBuild(File workDir, Consumer<String> onLine) throws Exception {
-        List<String> cmd = List.of(npmCmd(), "run", "build");
+        return runNpmRunBuild(workDir, List.of(), onLine);
+    }
+
+    /*
+     * extra args go to the build script after "--", e.g. "--base=./" for vite.
+     */
+    public static String runNpmRunBuild(File workDir, List<String> args, Consumer<String> onLine) throws Exception {
+        List<String> cmd = new ArrayList<>(List.of(npmCmd(), "run", "build"));
+        if (!args.isEmpty()) {
+            cmd.add("--");
+            cmd.addAll(args);
+        }
         return runDirect(cmd, workDir, LONG, false, onLine);
     }
 
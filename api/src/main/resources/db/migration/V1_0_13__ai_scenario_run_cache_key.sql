@@ -0,0 +1,8 @@
+-- AnalysisCache key on ai_scenario_run (AiScenarioRunEntity.cacheKey); null = not a cache entry
+alter table if exists ai_scenario_run add column if not exists cache_key varchar(64);
+do $$
+begin
+  if to_regclass('ai_scenario_run') is not null then
+    create index if not exists ai_scenario_run_cache_key on ai_scenario_run (cache_key, created_at);
+  end if;
+end $$;
@@ -0,0 +1,26 @@
+-- fleet-wide template rollouts (FleetRolloutEntity, FleetRolloutTargetEntity, FleetRollout)
+create table if not exists fleet_rollout (
+  id                uuid primary key,
+  status            varchar(16) not null,   -- running | paused | halted | interrupted | done
+  template_version  varchar(64),
+  parallelism       integer not null,
+  max_failures      integer not null,
+  total             integer not null,
+  error_message     text,
+  created_at        timestamptz not null,
+  updated_at        timestamptz not null
+);
+
+create table if not exists fleet_rollout_target (
+  id            uuid primary key,
+  rollout_id    uuid not null references fleet_rollout(id) on delete cascade,
+  app_name      varchar(128) not null,
+  company_id    varchar(64),
+  status        varchar(16) not null,   -- pending | running | done | failed
+  attempts      integer not null default 0,
+  error_message text,
+  started_at    timestamptz,
+  finished_at   timestamptz,
+  unique (rollout_id, app_name)
+);
+create index if not exists fleet_rollout_target_status on fleet_rollout_target (rollout_id, status);
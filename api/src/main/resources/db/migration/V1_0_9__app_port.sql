@@ -0,0 +1,8 @@
+-- host port owned by an app container (AppPortEntity, PortAllocator)
+create table if not exists app_port (
+  port        integer primary key,
+  app_name    varchar(128) not null unique,
+  company_id  varchar(64),
+  status      varchar(16) not null,   -- reserved | active
+  updated_at  timestamp not null default now()
+);
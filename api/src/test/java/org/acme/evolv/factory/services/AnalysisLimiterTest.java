@@ -0,0 +1,192 @@
+package org.acme.evolv.factory.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisLimiterTest {
+
+    private AnalysisLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new AnalysisLimiter();
+        limiter.enabled = true;
+        limiter.companyConcurrent = 2;
+        limiter.companyQueue = 0;
+        limiter.modelConcurrent = 16;
+        limiter.modelQueue = 0;
+        limiter.queueWait = Duration.ofMillis(20);
+        limiter.maxModels = 2;
+        limiter.companyPerMinute = 6000;
+        limiter.companyBurst = 100;
+        limiter.retryAfter = Duration.ofSeconds(5);
+    }
+
+    @Test
+    void companyBulkheadCapsConcurrentCalls() throws Exception {
+        var first = limiter.acquire("a", null);
+        var second = limiter.acquire("a", null);
+
+        var e = assertThrows(AnalysisLimiter.LimitExceeded.class, () -> limiter.acquire("a", null));
+        assertEquals(5, e.retryAfterSeconds());
+        // other companies are not affected
+        limiter.acquire("b", null).close();
+
+        first.close();
+        limiter.acquire("a", null).close();
+        second.close();
+    }
+
+    @Test
+    void queuedCallerGetsASlotFreedWithinQueueWait() throws Exception {
+        limiter.companyQueue = 1;
+        limiter.queueWait = Duration.ofSeconds(5);
+        var first = limiter.acquire("a", null);
+        var second = limiter.acquire("a", null);
+
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            first.close();
+        });
+        limiter.acquire("a", null).close();
+        second.close();
+    }
+
+    @Test
+    void modelBulkheadCapsAcrossCompanies() throws Exception {
+        limiter.modelConcurrent = 1;
+        var held = limiter.acquire("a", "gpt");
+
+        assertThrows(AnalysisLimiter.LimitExceeded.class, () -> limiter.acquire("b", "gpt"));
+        // the rejected call gave its company slot back
+        try (var p1 = limiter.acquire("b", "other-model"); var p2 = limiter.acquire("b", "third-model")) {
+            assertEquals(1, p1.slots());
+            assertEquals(1, p2.slots());
+        }
+        held.close();
+    }
+
+    @Test
+    void unknownModelsBeyondMaxModelsShareOneBulkhead() throws Exception {
+        limiter.companyConcurrent = 10;
+        limiter.modelConcurrent = 1;
+        limiter.maxModels = 1;
+        var known = limiter.acquire("a", "m1");
+        var other = limiter.acquire("a", "m2");
+
+        assertThrows(AnalysisLimiter.LimitExceeded.class, () -> limiter.acquire("a", "m3"));
+        other.close();
+        known.close();
+
+        @SuppressWarnings("unchecked")
+        var models = (Map<String, Object>) limiter.stats().get("models");
+        assertEquals(Set.of("m1", "other"), models.keySet());
+    }
+
+    @Test
+    void rateLimitRejectsWithItsOwnRetryAfter() {
+        limiter.companyPerMinute = 6;
+        limiter.companyBurst = 2;
+
+        limiter.checkRate("a");
+        limiter.checkRate("a");
+        var e = assertThrows(AnalysisLimiter.LimitExceeded.class, () -> limiter.checkRate("a"));
+        assertTrue(e.retryAfterSeconds() >= 1 && e.retryAfterSeconds() <= 10, "retry after " + e.retryAfterSeconds());
+        limiter.checkRate("b");
+    }
+
+    @Test
+    void acquireTakesARateToken() throws Exception {
+        limiter.companyBurst = 1;
+        limiter.companyPerMinute = 1;
+
+        limiter.acquire("a", null).close();
+        assertThrows(AnalysisLimiter.LimitExceeded.class, () -> limiter.acquire("a", null));
+    }
+
+    @Test
+    void acquireUpToTakesOnlyFreeSlots() throws Exception {
+        limiter.companyConcurrent = 4;
+        var held = limiter.acquire("a", null);
+
+        try (var fan = limiter.acquireUpTo("a", null, 8, null)) {
+            assertEquals(3, fan.slots());
+            assertThrows(AnalysisLimiter.LimitExceeded.class, () -> limiter.acquire("a", null));
+        }
+        held.close();
+
+        try (var fan = limiter.acquireUpTo("a", null, 8, null)) {
+            assertEquals(4, fan.slots());
+        }
+        try (var fan = limiter.acquireUpTo("a", null, 2, null)) {
+            assertEquals(2, fan.slots());
+        }
+    }
+
+    @Test
+    void acquireUpToWaitsForTheFirstSlotOnly() throws Exception {
+        limiter.companyQueue = 1;
+        var first = limiter.acquire("a", null);
+        var second = limiter.acquire("a", null);
+
+        assertThrows(AnalysisLimiter.LimitExceeded.class, () -> limiter.acquireUpTo("a", null, 8, null));
+
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            first.close();
+        });
+        try (var fan = limiter.acquireUpTo("a", null, 8, Duration.ofSeconds(5))) {
+            assertEquals(1, fan.slots());
+        }
+        second.close();
+    }
+
+    @Test
+    void acquireUpToIsBoundedByTheModelBulkheadToo() throws Exception {
+        limiter.companyConcurrent = 8;
+        limiter.modelConcurrent = 3;
+
+        try (var fan = limiter.acquireUpTo("a", "gpt", 8, null)) {
+            assertEquals(3, fan.slots());
+            // the company slot it could not pair with a model slot went back
+            assertEquals(3, companyActive("a"));
+        }
+        assertEquals(0, companyActive("a"));
+    }
+
+    @Test
+    void disabledLimiterAdmitsEverything() throws Exception {
+        limiter.enabled = false;
+        limiter.companyConcurrent = 1;
+
+        try (var a = limiter.acquire("a", null); var b = limiter.acquire("a", null);
+                var fan = limiter.acquireUpTo("a", null, 8, null)) {
+            assertEquals(1, a.slots());
+            assertEquals(1, b.slots());
+            assertEquals(8, fan.slots());
+        }
+        for (int i = 0; i < 1000; i++) {
+            limiter.checkRate("a");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int companyActive(String company) {
+        var companies = (Map<String, Map<String, Object>>) limiter.stats().get("companies");
+        return (Integer) companies.get(company).get("active");
+    }
+}
@@ -0,0 +1,149 @@
+package org.acme.evolv.factory.services;
+
+import org.acme.evolv.utils.LogSseHub;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildSchedulerTest {
+
+    private BuildScheduler scheduler;
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new BuildScheduler();
+        scheduler.hub = new LogSseHub();
+        scheduler.concurrency = 1;
+        scheduler.maxQueue = 50;
+        scheduler.maxQueuePerCompany = 5;
+        scheduler.maxPriority = 10;
+        scheduler.initialEtaSeconds = 60;
+        scheduler.retention = Duration.ofHours(1);
+        scheduler.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        gate.countDown();
+        scheduler.shutdown();
+    }
+
+    /* holds the only worker until the gate opens, so everything submitted after it queues */
+    private BuildScheduler.Job occupy() {
+        return scheduler.submit("blocker", "blocker", 0, null, () -> {
+            gate.await();
+            return result("blocker");
+        });
+    }
+
+    private Callable<VueFactoryService.Result> record(String name) {
+        return () -> {
+            ran.add(name);
+            return result(name);
+        };
+    }
+
+    private static VueFactoryService.Result result(String name) {
+        return new VueFactoryService.Result("img-" + name, "vue-" + name, "", "");
+    }
+
+    @Test
+    void priorityOnlyOrdersACompanysOwnBuilds() throws Exception {
+        occupy();
+        var a1 = scheduler.submit("a", "a1", 0, null, record("a1"));
+        var a2 = scheduler.submit("a", "a2", 5, null, record("a2"));
+        var b1 = scheduler.submit("b", "b1", 1000, null, record("b1"));
+
+        // round-robin a, b, a: b's huge priority does not put it ahead of a
+        assertEquals(1, scheduler.view(a2.id()).position());
+        assertEquals(2, scheduler.view(b1.id()).position());
+        assertEquals(3, scheduler.view(a1.id()).position());
+
+        gate.countDown();
+        for (var job : List.of(a1, a2, b1)) {
+            job.future().get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("a2", "b1", "a1"), ran);
+    }
+
+    @Test
+    void clientPriorityIsClamped() throws Exception {
+        occupy();
+        var low = scheduler.submit("a", "low", 10, null, record("low"));
+        var high = scheduler.submit("a", "high", Integer.MAX_VALUE, null, record("high"));
+
+        // both end up at maxPriority: FIFO between them
+        assertEquals(1, scheduler.view(low.id()).position());
+        assertEquals(2, scheduler.view(high.id()).position());
+        gate.countDown();
+        high.future().get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("low", "high"), ran);
+    }
+
+    @Test
+    void sameAppForSameCompanyReturnsTheQueuedJob() {
+        occupy();
+        var first = scheduler.submit("a", "My App", 0, null, record("first"));
+        var again = scheduler.submit("a", "my-app", 0, null, record("again"));
+
+        assertSame(first, again);
+        assertEquals(BuildScheduler.QUEUED, first.status());
+    }
+
+    @Test
+    void sameAppForAnotherCompanyIsRefused() {
+        occupy();
+        scheduler.submit("a", "my-app", 0, null, record("a"));
+
+        assertThrows(IllegalStateException.class, () -> scheduler.submit("b", "My App", 0, null, record("b")));
+    }
+
+    @Test
+    void perCompanyQueueLimitRejects() {
+        scheduler.maxQueuePerCompany = 2;
+        occupy();
+        scheduler.submit("a", "one", 0, null, record("one"));
+        scheduler.submit("a", "two", 0, null, record("two"));
+
+        assertThrows(RejectedExecutionException.class,
+                () -> scheduler.submit("a", "three", 0, null, record("three")));
+        // another company still gets in
+        assertEquals(BuildScheduler.QUEUED, scheduler.submit("b", "four", 0, null, record("four")).status());
+    }
+
+    @Test
+    void totalQueueLimitRejects() {
+        scheduler.maxQueue = 2;
+        occupy();
+        scheduler.submit("a", "one", 0, null, record("one"));
+        scheduler.submit("b", "two", 0, null, record("two"));
+
+        assertThrows(RejectedExecutionException.class,
+                () -> scheduler.submit("c", "three", 0, null, record("three")));
+    }
+
+    @Test
+    void failedBuildCompletesTheFutureExceptionally() throws Exception {
+        var job = scheduler.submit("a", "broken", 0, null, () -> {
+            throw new IllegalStateException("npm build failed");
+        });
+
+        var e = assertThrows(java.util.concurrent.ExecutionException.class,
+                () -> job.future().get(5, TimeUnit.SECONDS));
+        assertEquals("npm build failed", e.getCause().getMessage());
+        assertEquals(BuildScheduler.FAILED, job.status());
+        assertEquals("npm build failed", scheduler.view(job.id()).error());
+    }
+}
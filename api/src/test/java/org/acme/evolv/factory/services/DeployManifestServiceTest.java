@@ -0,0 +1,106 @@
+package org.acme.evolv.factory.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeployManifestServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void identicalManifestsHaveNoDiff() {
+        var files = Map.of("index.html", "h1", "assets/app.js", "h2");
+
+        assertTrue(DeployManifestService.diff(files, files).isEmpty());
+    }
+
+    @Test
+    void changedAndNewFilesAreUploaded() {
+        var before = Map.of("index.html", "h1", "assets/app-1.js", "h2");
+        var after = Map.of("index.html", "h1-new", "assets/app-1.js", "h2", "assets/extra.css", "h3");
+
+        var diff = DeployManifestService.diff(before, after);
+
+        assertEquals(List.of("assets/extra.css", "index.html"), diff.changed().stream().sorted().toList());
+        assertEquals(List.of(), diff.removed());
+    }
+
+    @Test
+    void filesGoneFromDistAreRemoved() {
+        var before = Map.of("index.html", "h1", "assets/app-1.js", "h2");
+        var after = Map.of("index.html", "h1", "assets/app-2.js", "h3");
+
+        var diff = DeployManifestService.diff(before, after);
+
+        assertEquals(List.of("assets/app-2.js"), diff.changed());
+        assertEquals(List.of("assets/app-1.js"), diff.removed());
+    }
+
+    @Test
+    void emptyBeforeUploadsEverything() {
+        var diff = DeployManifestService.diff(Map.of(), Map.of("index.html", "h1", "favicon.ico", "h2"));
+
+        assertEquals(2, diff.changed().size());
+        assertTrue(diff.removed().isEmpty());
+    }
+
+    @Test
+    void computeHashesFilesByForwardSlashPath() throws Exception {
+        Path dist = tmp.resolve("dist");
+        Files.createDirectories(dist.resolve("assets"));
+        Files.writeString(dist.resolve("index.html"), "<html></html>");
+        Files.writeString(dist.resolve("assets/app.js"), "console.log(1)");
+
+        DeployManifestService manifests = service();
+        var before = manifests.compute(dist);
+        assertEquals(List.of("assets/app.js", "index.html"), List.copyOf(before.keySet()));
+
+        Files.writeString(dist.resolve("assets/app.js"), "console.log(2)");
+        var diff = DeployManifestService.diff(before, manifests.compute(dist));
+        assertEquals(List.of("assets/app.js"), diff.changed());
+        assertTrue(diff.removed().isEmpty());
+    }
+
+    @Test
+    void savedManifestLoadsBackAndDeleteForgetsIt() throws Exception {
+        Path dist = tmp.resolve("dist");
+        Files.createDirectories(dist);
+        Files.writeString(dist.resolve("index.html"), "<html></html>");
+
+        DeployManifestService manifests = service();
+        var files = manifests.compute(dist);
+        manifests.save("vue-demo", files);
+        assertEquals(files, manifests.load("vue-demo"));
+
+        manifests.delete("vue-demo");
+        assertNull(manifests.load("vue-demo"));
+    }
+
+    @Test
+    void unreadableManifestMeansFullDeploy() throws Exception {
+        DeployManifestService manifests = service();
+        Files.createDirectories(tmp.resolve(".manifests"));
+        Files.writeString(tmp.resolve(".manifests/vue-demo.json"), "{not json");
+
+        assertNull(manifests.load("vue-demo"));
+    }
+
+    private DeployManifestService service() {
+        DeployManifestService manifests = new DeployManifestService();
+        manifests.mapper = new ObjectMapper();
+        manifests.workspace = tmp.toString();
+        manifests.enabled = true;
+        manifests.init();
+        return manifests;
+    }
+}
@@ -0,0 +1,142 @@
+package org.acme.evolv.factory.services;
+
+import org.acme.evolv.entity.AppPortEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortAllocatorTest {
+
+    private static final int START = 47100;
+    private static final int END = 47103;
+
+    /* app_port rows, app -> port */
+    private final Map<String, Integer> table = new ConcurrentHashMap<>();
+    private boolean failStore;
+    private PortAllocator ports;
+
+    @BeforeEach
+    void setUp() {
+        ports = allocator();
+    }
+
+    private PortAllocator allocator() {
+        PortAllocator p = new PortAllocator() {
+            @Override
+            List<AppPortEntity> rows() {
+                List<AppPortEntity> rows = new ArrayList<>();
+                table.forEach((app, port) -> {
+                    AppPortEntity row = new AppPortEntity();
+                    row.appName = app;
+                    row.port = port;
+                    rows.add(row);
+                });
+                return rows;
+            }
+
+            @Override
+            void store(String app, String companyId, int port) {
+                if (failStore)
+                    throw new IllegalStateException("db down");
+                table.put(app, port);
+            }
+
+            @Override
+            void drop(String app) {
+                table.remove(app);
+            }
+        };
+        p.start = START;
+        p.end = END;
+        return p;
+    }
+
+    @Test
+    void appsGetDistinctPortsInRange() {
+        var seen = new HashSet<Integer>();
+        for (String app : List.of("a", "b", "c")) {
+            var r = ports.reserve(app, "co", null);
+            assertTrue(r.fresh());
+            assertTrue(r.port() >= START && r.port() <= END);
+            assertTrue(seen.add(r.port()), "port handed out twice: " + r.port());
+        }
+        assertEquals(Map.of("a", ports.portOf("a"), "b", ports.portOf("b"), "c", ports.portOf("c")), table);
+    }
+
+    @Test
+    void sameAppKeepsItsPort() {
+        int port = ports.reserve("a", "co", null).port();
+
+        var again = ports.reserve("a", "co", null);
+        assertEquals(port, again.port());
+        assertFalse(again.fresh());
+        assertFalse(ports.reserve("a", "co", port).fresh());
+    }
+
+    @Test
+    void preferredPortOfAnotherAppIsRefused() {
+        int port = ports.reserve("a", "co", START + 2).port();
+        assertEquals(START + 2, port);
+
+        assertThrows(IllegalStateException.class, () -> ports.reserve("b", "co", START + 2));
+        assertThrows(IllegalStateException.class, () -> ports.reserve("b", "co", END + 1));
+        assertNull(ports.portOf("b"));
+    }
+
+    @Test
+    void movingToAPreferredPortFreesTheOldOne() {
+        int old = ports.reserve("a", "co", START).port();
+
+        var moved = ports.reserve("a", "co", START + 1);
+        assertEquals(START + 1, moved.port());
+        assertFalse(moved.fresh());
+        assertEquals(old, ports.reserve("b", "co", old).port());
+    }
+
+    @Test
+    void exhaustedRangeThrows() {
+        for (int i = 0; i <= END - START; i++) {
+            ports.reserve("app" + i, "co", START + i);
+        }
+        assertThrows(IllegalStateException.class, () -> ports.reserve("one-too-many", "co", null));
+    }
+
+    @Test
+    void failedStoreDoesNotLeakThePort() {
+        failStore = true;
+        assertThrows(IllegalStateException.class, () -> ports.reserve("a", "co", START));
+        assertNull(ports.portOf("a"));
+
+        failStore = false;
+        assertEquals(START, ports.reserve("b", "co", START).port());
+    }
+
+    @Test
+    void releaseFreesThePortAndTheRow() {
+        int port = ports.reserve("a", "co", START).port();
+
+        ports.release("a");
+        assertNull(ports.portOf("a"));
+        assertFalse(table.containsKey("a"));
+        assertEquals(port, ports.reserve("b", "co", port).port());
+    }
+
+    @Test
+    void rowsFromTheTableAreKnownAfterARestart() {
+        table.put("kept", START + 1);
+        table.put("outside", END + 100);
+        PortAllocator restarted = allocator();
+
+        assertEquals(START + 1, restarted.portOf("kept"));
+        assertNull(restarted.portOf("outside"));
+        assertThrows(IllegalStateException.class, () -> restarted.reserve("new", "co", START + 1));
+        assertNotEquals(START + 1, restarted.reserve("new", "co", null).port());
+    }
+}
@@ -0,0 +1,129 @@
+package org.acme.evolv.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultipartBodyPublisherTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void fieldsAndFilesAreFramedByTheBoundary() throws Exception {
+        Path pdf = tmp.resolve("a.pdf");
+        Files.write(pdf, new byte[] { '%', 'P', 'D', 'F', 0, (byte) 0xff });
+
+        var body = new MultipartBodyPublisher()
+                .field("question", "what is it?")
+                .file("file", "a.pdf", "application/pdf", pdf);
+        String boundary = boundaryOf(body);
+
+        String expected = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"question\"\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n\r\n"
+                + "what is it?\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"a.pdf\"\r\n"
+                + "Content-Type: application/pdf\r\n\r\n"
+                + "%PDF\0\u00ff\r\n"
+                + "--" + boundary + "--\r\n";
+        assertArrayEquals(expected.getBytes(StandardCharsets.ISO_8859_1), read(body.build()));
+    }
+
+    @Test
+    void contentLengthIsKnownAndMatchesTheBody() throws Exception {
+        Path file = tmp.resolve("big.bin");
+        Files.write(file, new byte[200_000]);
+
+        var publisher = new MultipartBodyPublisher()
+                .field("custom_prompt", "日本語")
+                .file("files", "big.bin", null, file)
+                .build();
+
+        assertEquals(read(publisher).length, publisher.contentLength());
+    }
+
+    @Test
+    void emptyBodyIsJustTheClosingBoundary() throws Exception {
+        var body = new MultipartBodyPublisher();
+
+        assertEquals("--" + boundaryOf(body) + "--\r\n", new String(read(body.build()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void headerValuesCannotBreakOutOfTheirQuotes() throws Exception {
+        Path file = tmp.resolve("x.pdf");
+        Files.writeString(file, "x");
+
+        var body = new MultipartBodyPublisher()
+                .field(null, null)
+                .file("file", "evil\"\r\nX-Injected: 1.pdf", "", file);
+        String text = new String(read(body.build()), StandardCharsets.UTF_8);
+
+        assertTrue(text.contains("name=\"\"\r\n"), text);
+        assertTrue(text.contains("filename=\"evil%22%0D%0AX-Injected: 1.pdf\"\r\n"), text);
+        assertTrue(text.contains("Content-Type: application/octet-stream\r\n"), text);
+    }
+
+    @Test
+    void eachPublisherHasItsOwnBoundary() {
+        assertNotEquals(boundaryOf(new MultipartBodyPublisher()), boundaryOf(new MultipartBodyPublisher()));
+    }
+
+    @Test
+    void postSetsTheContentType() throws Exception {
+        var body = new MultipartBodyPublisher().field("a", "b");
+
+        var req = body.post("http://localhost:8000/api/v1/pdf/analyze").build();
+        assertEquals(body.contentType(), req.headers().firstValue("Content-Type").orElseThrow());
+        assertEquals("POST", req.method());
+    }
+
+    private static String boundaryOf(MultipartBodyPublisher body) {
+        String type = body.contentType();
+        assertTrue(type.startsWith("multipart/form-data; boundary="), type);
+        return type.substring("multipart/form-data; boundary=".length());
+    }
+
+    private static byte[] read(HttpRequest.BodyPublisher publisher) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] b = new byte[item.remaining()];
+                item.get(b);
+                out.writeBytes(b);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.get(5, TimeUnit.SECONDS);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,143 @@
+package org.acme.evolv.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> flight = new SingleFlight<>();
+
+    @Test
+    void concurrentCallersShareOneCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = exec.submit(() -> flight.run("k", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "answer";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            List<Future<String>> followers = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                followers.add(exec.submit(() -> flight.run("k", () -> {
+                    calls.incrementAndGet();
+                    return "own call";
+                })));
+            }
+            waitForShared(5);
+            release.countDown();
+
+            assertEquals("answer", leader.get(5, TimeUnit.SECONDS));
+            for (Future<String> f : followers) {
+                assertEquals("answer", f.get(5, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(1, calls.get());
+        assertEquals(5, flight.shared());
+        assertEquals(0, flight.inFlight());
+    }
+
+    @Test
+    void followersGetTheLeadersException() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = exec.submit(() -> flight.run("k", () -> {
+                started.countDown();
+                release.await();
+                throw new IOException("upstream 502");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> follower = exec.submit(() -> flight.run("k", () -> "own call"));
+            waitForShared(1);
+            release.countDown();
+
+            for (Future<String> f : List.of(leader, follower)) {
+                var e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, e.getCause());
+                assertEquals("upstream 502", e.getCause().getMessage());
+            }
+        }
+        assertEquals(0, flight.inFlight());
+    }
+
+    @Test
+    void followerStopsWaitingAfterMaxWait() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = exec.submit(() -> flight.run("k", () -> {
+                started.countDown();
+                release.await();
+                return "late";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertThrows(TimeoutException.class, () -> flight.run("k", Duration.ofMillis(50), () -> "own call"));
+
+            // the leader is not affected by its follower giving up
+            release.countDown();
+            assertEquals("late", leader.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, flight.inFlight());
+    }
+
+    @Test
+    void nothingIsKeptAfterTheCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("1", flight.run("k", () -> String.valueOf(calls.incrementAndGet())));
+        assertEquals("2", flight.run("k", () -> String.valueOf(calls.incrementAndGet())));
+        assertEquals(0, flight.shared());
+    }
+
+    @Test
+    void differentKeysDoNotShare() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> a = exec.submit(() -> flight.run("a", () -> {
+                started.countDown();
+                release.await();
+                return "a";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertEquals("b", flight.run("b", () -> "b"));
+            release.countDown();
+            assertEquals("a", a.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, flight.shared());
+    }
+
+    /* followers count as shared as soon as they found the leader, before they block on it */
+    private void waitForShared(long n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flight.shared() < n) {
+            assertTrue(System.currentTimeMillis() < deadline, "followers never joined");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.acme.evolv.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    @Test
+    void burstIsAvailableAtOnce() {
+        TokenBucket bucket = new TokenBucket(60, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryTake());
+        }
+        long wait = bucket.tryTake();
+        assertTrue(wait > 0 && wait <= 1000, "one token per second, waited " + wait);
+    }
+
+    @Test
+    void refillsOverTime() throws Exception {
+        TokenBucket bucket = new TokenBucket(60_000, 1); // one token per millisecond
+
+        assertEquals(0, bucket.tryTake());
+        Thread.sleep(20);
+        assertEquals(0, bucket.tryTake());
+    }
+
+    @Test
+    void neverHoldsMoreThanTheBurst() throws Exception {
+        TokenBucket bucket = new TokenBucket(60_000, 2);
+
+        Thread.sleep(50); // long enough for 50 tokens, capped at 2
+        assertEquals(0, bucket.tryTake());
+        assertEquals(0, bucket.tryTake());
+        assertTrue(bucket.tryTake() > 0);
+    }
+
+    @Test
+    void burstBelowOneStillAllowsOneCall() {
+        TokenBucket bucket = new TokenBucket(1, 0);
+
+        assertEquals(0, bucket.tryTake());
+        assertTrue(bucket.tryTake() > 0);
+    }
+}